@@ -0,0 +1,124 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.handler.codec.bayeux.BayeuxConnection;
+import org.jboss.netty.handler.codec.bayeux.BayeuxData;
+import org.jboss.netty.handler.codec.bayeux.BayeuxDecoder;
+import org.jboss.netty.handler.codec.bayeux.BayeuxEncoder;
+import org.jboss.netty.handler.codec.bayeux.BayeuxResponse;
+import org.jboss.netty.handler.codec.bayeux.BayeuxRouter;
+import org.jboss.netty.handler.codec.bayeux.PublishRequest;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding HTTP requests to Bayeux messages and encoding Bayeux responses to
+ * HTTP responses, by the codec on embedded pipelines.
+ *
+ * @author daijun
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    private BayeuxRouter router;
+    private BayeuxConnection connection;
+    private DecoderEmbedder<BayeuxConnection> decoder;
+    private EncoderEmbedder<HttpResponse> encoder;
+    private HttpRequest request;
+    private ChannelBuffer content;
+    private Channel channel;
+    private BayeuxData data;
+
+    @Setup
+    public void setUp() {
+        router = new BayeuxRouter();
+        connection = new BayeuxConnection(router);
+        router.addConnection(connection);
+        router.addListener("/chat/**", connection);
+        decoder = new DecoderEmbedder<BayeuxConnection>(new BayeuxDecoder(router));
+        encoder = new EncoderEmbedder<HttpResponse>(new BayeuxEncoder(router));
+
+        String batch = JSONParserBenchmark.BATCH.replace("Un1q31d3nt1f13r", connection.getClientId());
+        request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/cometd");
+        request.setHeader(HttpHeaders.Names.CONTENT_TYPE, "text/json; charset=utf-8");
+        request.setContent(ChannelBuffers.copiedBuffer(batch, "UTF-8"));
+        content = ChannelBuffers.copiedBuffer(batch, "UTF-8");
+        channel = DiscardingChannel.create();
+        data = new BayeuxData();
+        data.put("user", "daijun");
+        data.put("chat", "Hello, Bayeux");
+    }
+
+    @TearDown
+    public void tearDown() {
+        decoder.finish();
+        encoder.finish();
+        router.releaseExternalResources();
+    }
+
+    @Benchmark
+    public BayeuxConnection decode() {
+        decoder.offer(request);
+        BayeuxConnection decoded = decoder.poll();
+        decoded.clear();
+        return decoded;
+    }
+
+    @Benchmark
+    public HttpResponse encodeResponse() {
+        encoder.offer(new BayeuxResponse(content.duplicate(), true));
+        return encoder.poll();
+    }
+
+    /**
+     * Encoding a connection handles its requests, here a publish echoed to
+     * the publisher itself, and flushes the responses.
+     */
+    @Benchmark
+    public BayeuxConnection encodeConnection() {
+        connection.accept(channel, true);
+        connection.putToUpstream(new PublishRequest("/chat/room", data));
+        encoder.offer(connection);
+        return connection;
+    }
+}
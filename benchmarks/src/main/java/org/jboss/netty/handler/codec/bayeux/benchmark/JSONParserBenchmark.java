@@ -0,0 +1,93 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.bayeux.BayeuxMessage;
+import org.jboss.netty.handler.codec.bayeux.BayeuxMessageFactory;
+import org.jboss.netty.handler.codec.bayeux.JSONParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and serializing a realistic client batch: a connect, a subscribe
+ * and several publishes with nested data.
+ *
+ * @author daijun
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONParserBenchmark {
+
+    static final String BATCH = createBatch(8);
+    private final JSONParser parser = new JSONParser();
+    private ChannelBuffer buffer;
+    private Object parsed;
+
+    static String createBatch(int publishes) {
+        StringBuilder json = new StringBuilder();
+        json.append("[{\"channel\":\"/meta/connect\",\"clientId\":\"Un1q31d3nt1f13r\",\"connectionType\":\"long-polling\",\"id\":\"1\"}");
+        json.append(",{\"channel\":\"/meta/subscribe\",\"clientId\":\"Un1q31d3nt1f13r\",\"subscription\":\"/chat/**\",\"id\":\"2\"}");
+        for (int i = 0; i < publishes; i++) {
+            json.append(",{\"channel\":\"/chat/room").append(i % 3)
+                    .append("\",\"clientId\":\"Un1q31d3nt1f13r\",\"id\":\"").append(i + 3)
+                    .append("\",\"data\":{\"user\":\"daijun\",\"chat\":\"Hello, \\\"Bayeux\\\" 你好 #")
+                    .append(i).append("\",\"tags\":[\"netty\",\"comet\"],\"at\":1249113600000,\"score\":0.75,\"read\":false}}");
+        }
+        return json.append("]").toString();
+    }
+
+    @Setup
+    public void setUp() {
+        buffer = ChannelBuffers.copiedBuffer(BATCH, "UTF-8");
+        parsed = parser.parse(BATCH);
+    }
+
+    @Benchmark
+    public Object parseString() {
+        return parser.parse(BATCH);
+    }
+
+    @Benchmark
+    public Object parseBuffer() {
+        return parser.parse(buffer);
+    }
+
+    @Benchmark
+    public List<BayeuxMessage> createMessages() {
+        return BayeuxMessageFactory.getInstance().create(buffer);
+    }
+
+    @Benchmark
+    public String toJSON() {
+        return JSONParser.toJSON(parsed);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipelineCoverage;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.bayeux.JSONParser;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+
+/**
+ * A simulated Bayeux client. It handshakes, connects and subscribes to a
+ * channel, then keeps long-polling on one HTTP connection, and publishes on
+ * another one if it's a publisher.
+ *
+ * Published data carries its sending time, so the latency from publishing to
+ * delivering is measured when any client receives it.
+ *
+ * @author daijun
+ */
+@ChannelPipelineCoverage("all")
+public class LoadClient extends SimpleChannelUpstreamHandler {
+
+    private static final long PUBLISH_TIMEOUT = TimeUnit.SECONDS.toNanos(5);
+    private final LoadStats stats;
+    private final String host;
+    private final String subscription;
+    private final boolean publisher;
+    private final String payload;
+    private final AtomicInteger ids = new AtomicInteger();
+    private volatile Channel pollChannel;
+    private volatile Channel publishChannel;
+    private volatile String clientId;
+    private volatile boolean connected = false;
+    private volatile boolean running = true;
+    private volatile long started;
+    private volatile long publishing;//Sending time of the unanswered publish, or 0
+
+    public LoadClient(LoadStats stats, String host, String subscription, boolean publisher, String payload) {
+        this.stats = stats;
+        this.host = host;
+        this.subscription = subscription;
+        this.publisher = publisher;
+        this.payload = payload;
+    }
+
+    /**
+     * Start handshaking on connected channels.
+     *
+     * @param pollChannel
+     * @param publishChannel
+     */
+    public void start(Channel pollChannel, Channel publishChannel) {
+        this.pollChannel = pollChannel;
+        this.publishChannel = publishChannel;
+        pollChannel.getPipeline().addLast("client", this);
+        publishChannel.getPipeline().addLast("client", this);
+        started = System.nanoTime();
+        send(pollChannel, "[{\"channel\":\"/meta/handshake\",\"version\":\"1.0\",\"minimumVersion\":\"1.0beta\",\"supportedConnectionTypes\":[\"long-polling\"],\"id\":\"" + ids.incrementAndGet() + "\"}]");
+    }
+
+    /**
+     * Publish to subscribed channel, unless the last publish is not answered
+     * yet. A publish unanswered for 5 seconds is counted as lost.
+     */
+    public void publish() {
+        if (!publisher || !connected || !running) {
+            return;
+        }
+        long now = System.nanoTime();
+        long pending = publishing;
+        if (pending != 0) {
+            if (now - pending < PUBLISH_TIMEOUT) {
+                stats.skipped.incrementAndGet();
+                return;
+            }
+            stats.lost.incrementAndGet();
+        }
+        publishing = now;
+        stats.published.incrementAndGet();
+        send(publishChannel, "[{\"channel\":\"" + subscription + "\",\"clientId\":\"" + clientId + "\",\"id\":\"" + ids.incrementAndGet()
+                + "\",\"data\":{\"sent\":" + now + ",\"payload\":\"" + payload + "\"}}]");
+    }
+
+    public void stop() {
+        running = false;
+        if (pollChannel != null) {
+            pollChannel.close();
+        }
+        if (publishChannel != null) {
+            publishChannel.close();
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        HttpResponse response = (HttpResponse) e.getMessage();
+        if (!HttpResponseStatus.OK.equals(response.getStatus())) {
+            stats.failed.incrementAndGet();
+            return;
+        }
+        Object parsed = new JSONParser().parse(response.getContent());
+        Object[] messages = parsed instanceof Object[] ? (Object[]) parsed : new Object[]{parsed};
+        long now = System.nanoTime();
+        boolean polling = false;
+        for (Object message : messages) {
+            Map bayeux = (Map) message;
+            String channel = (String) bayeux.get("channel");
+            boolean successful = Boolean.TRUE.equals(bayeux.get("successful"));
+            if ("/meta/handshake".equals(channel)) {
+                if (!successful) {
+                    stats.failed.incrementAndGet();
+                    return;
+                }
+                clientId = (String) bayeux.get("clientId");
+                stats.handshaked.incrementAndGet();
+                stats.handshake.record(now - started);
+                send(pollChannel, "[{\"channel\":\"/meta/connect\",\"clientId\":\"" + clientId + "\",\"connectionType\":\"long-polling\",\"id\":\"" + ids.incrementAndGet()
+                        + "\"},{\"channel\":\"/meta/subscribe\",\"clientId\":\"" + clientId + "\",\"subscription\":\"" + subscription + "\",\"id\":\"" + ids.incrementAndGet() + "\"}]");
+                polling = true;
+            } else if ("/meta/connect".equals(channel)) {
+                if (successful && !connected) {
+                    connected = true;
+                    stats.connect.record(now - started);
+                } else if (!successful) {
+                    stats.failed.incrementAndGet();
+                }
+            } else if ("/meta/subscribe".equals(channel)) {
+                if (successful) {
+                    stats.subscribed.incrementAndGet();
+                }
+            } else if (bayeux.containsKey("successful")) {//Answer of publish
+                long pending = publishing;
+                if (pending != 0) {
+                    stats.publish.record(now - pending);
+                    publishing = 0;
+                }
+                stats.acknowledged.incrementAndGet();
+            } else if (bayeux.get("data") instanceof Map) {//Delivered data
+                Object sent = ((Map) bayeux.get("data")).get("sent");
+                if (sent instanceof Number) {
+                    stats.delivery.record(now - ((Number) sent).longValue());
+                }
+                stats.delivered.incrementAndGet();
+            }
+        }
+        if (e.getChannel() == pollChannel && !polling && clientId != null && running) {
+            send(pollChannel, "[{\"channel\":\"/meta/connect\",\"clientId\":\"" + clientId + "\",\"connectionType\":\"long-polling\",\"id\":\"" + ids.incrementAndGet() + "\"}]");
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+        if (running) {
+            stats.failed.incrementAndGet();
+        }
+        e.getChannel().close();
+    }
+
+    private void send(Channel channel, String json) {
+        ChannelBuffer content = ChannelBuffers.copiedBuffer(json, "UTF-8");
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/cometd");
+        request.setHeader(HttpHeaders.Names.HOST, host);
+        request.setHeader(HttpHeaders.Names.CONTENT_TYPE, "text/json; charset=utf-8");
+        request.setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(content.readableBytes()));
+        request.setContent(content);
+        channel.write(request);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux.benchmark;
+
+import static org.jboss.netty.channel.Channels.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.bayeux.BayeuxDispatcher;
+import org.jboss.netty.handler.codec.bayeux.BayeuxRouter;
+import org.jboss.netty.handler.codec.bayeux.ShardedBayeuxRouter;
+import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
+import org.jboss.netty.handler.codec.http.HttpRequestEncoder;
+import org.jboss.netty.handler.codec.http.HttpResponseDecoder;
+
+/**
+ * End-to-end load test of a Bayeux server. It simulates clients which
+ * handshake, connect, subscribe and then long-poll, while some of them
+ * publish at a fixed rate, and reports throughput and latencies.
+ *
+ * Settings are system properties:
+ * <ul>
+ * <li>host, port: server to test, if port is not set, a server of
+ * LoadServerPipelineFactory is started on a local port</li>
+ * <li>clients: number of simulated clients, default 1000</li>
+ * <li>channels: clients are subscribed to these channels evenly, so a
+ * message is delivered to clients/channels subscribers, default 10</li>
+ * <li>publishers: number of publishing clients, default 10</li>
+ * <li>rate: publishes per second of each publisher, default 10</li>
+ * <li>payload: bytes of published data, default 64</li>
+ * <li>duration: seconds of publishing, default 30</li>
+ * </ul>
+ *
+ * @author daijun
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        String host = System.getProperty("host", "localhost");
+        int port = Integer.getInteger("port", 0);
+        int clients = Integer.getInteger("clients", 1000);
+        int channels = Integer.getInteger("channels", 10);
+        int publishers = Math.min(clients, Integer.getInteger("publishers", 10));
+        int rate = Integer.getInteger("rate", 10);
+        int payload = Integer.getInteger("payload", 64);
+        int duration = Integer.getInteger("duration", 30);
+
+        ServerBootstrap server = null;
+        BayeuxRouter router = null;
+        if (port == 0) {
+            server = new ServerBootstrap(new NioServerSocketChannelFactory(
+                    Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+            router = new ShardedBayeuxRouter();
+            router.setDispatcher(new BayeuxDispatcher(router));
+            server.setPipelineFactory(new LoadServerPipelineFactory(router));
+            server.setOption("child.tcpNoDelay", true);
+            server.setOption("child.keepAlive", true);
+            server.setOption("backlog", 1024);
+            Channel serverChannel = server.bind(new InetSocketAddress(host, 0));
+            port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        }
+        System.out.println("Clients: " + clients + ", channels: " + channels + ", fan-out: " + (clients / channels)
+                + ", publishers: " + publishers + " x " + rate + "/s, payload: " + payload + " bytes, server: " + host + ":" + port);
+
+        ClientBootstrap bootstrap = new ClientBootstrap(new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                ChannelPipeline pipeline = pipeline();
+                pipeline.addLast("httpDecoder", new HttpResponseDecoder());
+                pipeline.addLast("aggregator", new HttpChunkAggregator(1048576));
+                pipeline.addLast("httpEncoder", new HttpRequestEncoder());
+                return pipeline;
+            }
+        });
+        bootstrap.setOption("tcpNoDelay", true);
+        bootstrap.setOption("keepAlive", true);
+
+        LoadStats stats = new LoadStats();
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < payload; i++) {
+            data.append((char) ('a' + i % 26));
+        }
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        final List<LoadClient> loadClients = new ArrayList<LoadClient>(clients);
+        for (int i = 0; i < clients; i++) {
+            LoadClient client = new LoadClient(stats, host + ":" + port, "/load/" + (i % channels), i < publishers, data.toString());
+            ChannelFuture poll = bootstrap.connect(address).awaitUninterruptibly();
+            ChannelFuture publish = bootstrap.connect(address).awaitUninterruptibly();
+            if (!poll.isSuccess() || !publish.isSuccess()) {
+                Throwable cause = poll.isSuccess() ? publish.getCause() : poll.getCause();
+                System.out.println("Failed to connect client #" + i + ": " + cause);
+                poll.getChannel().close();
+                publish.getChannel().close();
+                break;
+            }
+            client.start(poll.getChannel(), publish.getChannel());
+            loadClients.add(client);
+        }
+        for (int i = 0; i < 600 && stats.subscribed.get() < loadClients.size(); i++) {
+            Thread.sleep(100);
+        }
+        System.out.println("Connected " + stats.subscribed.get() + " clients");
+
+        ScheduledExecutorService publishing = Executors.newSingleThreadScheduledExecutor();
+        final int publishingClients = Math.min(publishers, loadClients.size());
+        publishing.scheduleAtFixedRate(new Runnable() {
+
+            @Override
+            public void run() {
+                for (int i = 0; i < publishingClients; i++) {
+                    loadClients.get(i).publish();
+                }
+            }
+        }, 0, 1000000 / Math.max(1, rate), TimeUnit.MICROSECONDS);
+
+        long start = System.nanoTime();
+        long startPublished = stats.getPublished();
+        long startDelivered = stats.getDelivered();
+        long lastPublished = startPublished;
+        long lastDelivered = startDelivered;
+        for (int second = 1; second <= duration; second++) {
+            Thread.sleep(1000);
+            long published = stats.getPublished();
+            long delivered = stats.getDelivered();
+            System.out.println("[" + second + "s] published " + (published - lastPublished) + "/s, delivered " + (delivered - lastDelivered) + "/s");
+            lastPublished = published;
+            lastDelivered = delivered;
+        }
+        publishing.shutdownNow();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Thread.sleep(1000);//Let the last deliveries arrive
+
+        System.out.println();
+        System.out.println(String.format("Throughput: published %.0f msg/s, delivered %.0f msg/s",
+                (stats.getPublished() - startPublished) / seconds, (stats.getDelivered() - startDelivered) / seconds));
+        System.out.println("Published " + stats.getPublished() + ", acknowledged " + stats.acknowledged.get() + ", delivered " + stats.getDelivered()
+                + ", skipped " + stats.skipped.get() + ", lost " + stats.lost.get() + ", failed " + stats.failed.get());
+        for (LatencyHistogram histogram : stats.getHistograms()) {
+            System.out.println(histogram);
+        }
+
+        for (LoadClient client : loadClients) {
+            client.stop();
+        }
+        bootstrap.releaseExternalResources();
+        if (server != null) {
+            router.releaseExternalResources();
+            server.releaseExternalResources();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux.benchmark;
+
+import static org.jboss.netty.channel.Channels.*;
+
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineCoverage;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.bayeux.BayeuxConnection;
+import org.jboss.netty.handler.codec.bayeux.BayeuxDecoder;
+import org.jboss.netty.handler.codec.bayeux.BayeuxEncoder;
+import org.jboss.netty.handler.codec.bayeux.BayeuxRouter;
+import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
+import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
+
+/**
+ * The server pipeline of the chat example without its file serving and
+ * connection limit, handling every Bayeux request as it is.
+ *
+ * @author daijun
+ */
+public class LoadServerPipelineFactory implements ChannelPipelineFactory {
+
+    private final BayeuxRouter router;
+
+    public LoadServerPipelineFactory(BayeuxRouter router) {
+        this.router = router;
+    }
+
+    @Override
+    public ChannelPipeline getPipeline() throws Exception {
+        ChannelPipeline pipeline = pipeline();
+        pipeline.addLast("httpDecoder", new HttpRequestDecoder());
+        pipeline.addLast("bayeuxDecoder", new BayeuxDecoder(router));
+        pipeline.addLast("httpEncoder", new HttpResponseEncoder());
+        pipeline.addLast("bayeuxEncoder", new BayeuxEncoder(router));
+        pipeline.addLast("handler", new Handler());
+        return pipeline;
+    }
+
+    @ChannelPipelineCoverage("all")
+    private static class Handler extends SimpleChannelUpstreamHandler {
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            if (e.getMessage() instanceof BayeuxConnection) {
+                ctx.getChannel().write(e.getMessage());
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+            e.getChannel().close();
+        }
+    }
+}
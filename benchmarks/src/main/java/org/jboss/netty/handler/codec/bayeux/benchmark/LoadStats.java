@@ -0,0 +1,52 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms shared by all simulated clients of a load
+ * test.
+ *
+ * @author daijun
+ */
+public class LoadStats {
+
+    final AtomicLong handshaked = new AtomicLong();
+    final AtomicLong subscribed = new AtomicLong();
+    final AtomicLong published = new AtomicLong();
+    final AtomicLong acknowledged = new AtomicLong();
+    final AtomicLong delivered = new AtomicLong();
+    final AtomicLong skipped = new AtomicLong();
+    final AtomicLong lost = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final LatencyHistogram handshake = new LatencyHistogram("handshake");
+    final LatencyHistogram connect = new LatencyHistogram("connect");
+    final LatencyHistogram publish = new LatencyHistogram("publish");
+    final LatencyHistogram delivery = new LatencyHistogram("delivery");
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public LatencyHistogram[] getHistograms() {
+        return new LatencyHistogram[]{handshake, connect, publish, delivery};
+    }
+}
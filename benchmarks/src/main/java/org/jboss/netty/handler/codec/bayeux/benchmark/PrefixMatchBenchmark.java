@@ -0,0 +1,83 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.handler.codec.bayeux.BayeuxConnection;
+import org.jboss.netty.handler.codec.bayeux.BayeuxRouter;
+import org.jboss.netty.handler.codec.bayeux.BayeuxUtil;
+import org.jboss.netty.handler.codec.bayeux.ChannelTrie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Matching a published channel against a growing number of subscriptions,
+ * pairwise by BayeuxUtil.prefixMatch() and by the ChannelTrie used by the
+ * router.
+ *
+ * @author daijun
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrefixMatchBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int channels;
+    private String[] subscriptions;
+    private ChannelTrie<BayeuxConnection> trie;
+    private String channel;
+
+    @Setup
+    public void setUp() {
+        subscriptions = new String[channels];
+        trie = new ChannelTrie<BayeuxConnection>();
+        List<BayeuxConnection> listeners = new ArrayList<BayeuxConnection>();
+        listeners.add(new BayeuxConnection(new BayeuxRouter()));
+        for (int i = 0; i < channels; i++) {
+            //One in ten is a wildcard subscription, like real chat rooms
+            String subscription = i % 10 == 0 ? "/chat/room" + i + "/*" : "/chat/room" + i;
+            subscriptions[i] = subscription;
+            trie.put(subscription, listeners);
+        }
+        channel = "/chat/room" + (channels / 2 + 1);
+    }
+
+    @Benchmark
+    public List<String> prefixMatch() {
+        return BayeuxUtil.prefixMatch(channel, subscriptions);
+    }
+
+    @Benchmark
+    public Set<BayeuxConnection> trieMatch() {
+        return trie.match(channel);
+    }
+}
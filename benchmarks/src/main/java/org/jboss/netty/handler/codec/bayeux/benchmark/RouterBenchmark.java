@@ -0,0 +1,91 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.handler.codec.bayeux.BayeuxConnection;
+import org.jboss.netty.handler.codec.bayeux.BayeuxData;
+import org.jboss.netty.handler.codec.bayeux.BayeuxRouter;
+import org.jboss.netty.handler.codec.bayeux.DeliverEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Publishing a message to a channel with many subscribers. Every subscriber
+ * is long-polling on a discarding channel, so a publish includes matching,
+ * queueing, encoding once and flushing to each of them.
+ *
+ * @author daijun
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int subscribers;
+    private BayeuxRouter router;
+    private BayeuxConnection publisher;
+    private BayeuxConnection[] connections;
+    private Channel channel;
+    private BayeuxData data;
+
+    @Setup
+    public void setUp() {
+        router = new BayeuxRouter();
+        channel = DiscardingChannel.create();
+        publisher = new BayeuxConnection(router);
+        router.addConnection(publisher);
+        connections = new BayeuxConnection[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            connections[i] = new BayeuxConnection(router);
+            router.addConnection(connections[i]);
+            router.addListener(i % 2 == 0 ? "/chat/room" : "/chat/*", connections[i]);
+        }
+        data = new BayeuxData();
+        data.put("user", "daijun");
+        data.put("chat", "Hello, Bayeux");
+    }
+
+    @TearDown
+    public void tearDown() {
+        router.releaseExternalResources();
+    }
+
+    @Benchmark
+    public boolean publish() {
+        for (BayeuxConnection connection : connections) {
+            connection.accept(channel, true);
+        }
+        DeliverEvent deliver = new DeliverEvent("/chat/room", data);
+        deliver.setClientId(publisher.getClientId());
+        return router.publish(publisher, deliver);
+    }
+}
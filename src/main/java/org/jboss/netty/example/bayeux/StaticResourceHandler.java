@@ -0,0 +1,314 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.example.bayeux;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipelineCoverage;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+
+/**
+ * A handler serving static files of a root folder, like pages and scripts of
+ * a Bayeux client, on the same port as Bayeux. Put it after BayeuxDecoder,
+ * requests which aren't GET or HEAD of an existing file are passed on to the
+ * next handler.
+ *
+ * Files are read once and cached until they're modified. Small files are
+ * kept as heap buffers, together with a gzipped copy if it's smaller, which
+ * is sent to clients accepting gzip. Large files are memory mapped, and their
+ * buffers are written after the response head, so the content goes from the
+ * page cache to the socket without copying through the heap. Repeated
+ * requests only check the file's modification time.
+ *
+ * Responses carry ETag and Last-Modified, and requests with a matching
+ * If-None-Match or If-Modified-Since get 304 Not Modified.
+ *
+ * The handler has no per-channel state, so one instance may be shared by
+ * all pipelines, which also share its cache.
+ *
+ * @author daijun
+ */
+@ChannelPipelineCoverage("all")
+public class StaticResourceHandler extends SimpleChannelUpstreamHandler {
+
+    private static final Map<String, String> contentTypes = new HashMap<String, String>();
+    private final File root;
+    private final String rootPath;
+    private final int cacheThreshold;
+    private final ConcurrentMap<String, Resource> cache = new ConcurrentHashMap<String, Resource>();
+
+    static {
+        contentTypes.put("html", "text/html; charset=UTF-8");
+        contentTypes.put("htm", "text/html; charset=UTF-8");
+        contentTypes.put("js", "application/javascript; charset=UTF-8");
+        contentTypes.put("css", "text/css; charset=UTF-8");
+        contentTypes.put("json", "application/json; charset=UTF-8");
+        contentTypes.put("txt", "text/plain; charset=UTF-8");
+        contentTypes.put("xml", "text/xml; charset=UTF-8");
+        contentTypes.put("svg", "image/svg+xml");
+        contentTypes.put("png", "image/png");
+        contentTypes.put("gif", "image/gif");
+        contentTypes.put("jpg", "image/jpeg");
+        contentTypes.put("jpeg", "image/jpeg");
+        contentTypes.put("ico", "image/x-icon");
+    }
+
+    /**
+     * Create a handler serving the root folder, which caches files up to
+     * 64KB in heap.
+     *
+     * @param root
+     */
+    public StaticResourceHandler(String root) {
+        this(root, 65536);
+    }
+
+    /**
+     * Create a handler serving the root folder, which caches files up to the
+     * given bytes in heap, and maps larger ones.
+     *
+     * @param root
+     * @param cacheThreshold
+     */
+    public StaticResourceHandler(String root, int cacheThreshold) {
+        File file = new File(root);
+        try {
+            file = file.getCanonicalFile();
+        } catch (IOException e) {
+            file = file.getAbsoluteFile();
+        }
+        this.root = file;
+        this.rootPath = this.root.getPath() + File.separator;
+        this.cacheThreshold = cacheThreshold;
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (!(e.getMessage() instanceof HttpRequest)) {
+            ctx.sendUpstream(e);
+            return;
+        }
+        HttpRequest request = (HttpRequest) e.getMessage();
+        HttpMethod method = request.getMethod();
+        File file = null;
+        if (HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method)) {
+            file = resolve(request.getUri());
+        }
+        if (file == null) {
+            ctx.sendUpstream(e);
+            return;
+        }
+
+        Resource resource = resourceOf(file);
+        Channel channel = e.getChannel();
+        ChannelFuture future;
+        if (isNotModified(request, resource)) {
+            HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+            response.setHeader(HttpHeaders.Names.ETAG, resource.etag);
+            response.setHeader(HttpHeaders.Names.LAST_MODIFIED, resource.lastModifiedText);
+            future = channel.write(response);
+        } else {
+            String acceptEncoding = request.getHeader(HttpHeaders.Names.ACCEPT_ENCODING);
+            boolean gzip = resource.gzipped != null && acceptEncoding != null && acceptEncoding.contains("gzip");
+            ChannelBuffer content = gzip ? resource.gzipped : resource.content;
+            HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            response.setHeader(HttpHeaders.Names.CONTENT_TYPE, resource.contentType);
+            response.setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(content.readableBytes()));
+            response.setHeader(HttpHeaders.Names.ETAG, resource.etag);
+            response.setHeader(HttpHeaders.Names.LAST_MODIFIED, resource.lastModifiedText);
+            if (resource.gzipped != null) {
+                response.setHeader(HttpHeaders.Names.VARY, HttpHeaders.Names.ACCEPT_ENCODING);
+            }
+            if (gzip) {
+                response.setHeader(HttpHeaders.Names.CONTENT_ENCODING, "gzip");
+            }
+            if (HttpMethod.HEAD.equals(method)) {
+                future = channel.write(response);
+            } else if (resource.mapped) {//Head first, then the mapped buffer as it is
+                channel.write(response);
+                future = channel.write(content.duplicate());
+            } else {
+                response.setContent(content.duplicate());
+                future = channel.write(response);
+            }
+        }
+        if (!request.isKeepAlive()) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * Returns the file of a request URI, or null if it's not a readable file
+     * in the root folder. A folder is served by its index.html.
+     *
+     * @param uri
+     * @return
+     * @throws IOException
+     */
+    private File resolve(String uri) throws IOException {
+        int query = uri.indexOf('?');
+        String path = query == -1 ? uri : uri.substring(0, query);
+        try {
+            path = URLDecoder.decode(path, "UTF-8");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        File file = new File(root, path.replace('/', File.separatorChar)).getCanonicalFile();
+        if (file.isDirectory()) {
+            file = new File(file, "index.html");
+        }
+        if (!file.getPath().startsWith(rootPath) || !file.isFile() || !file.canRead()) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Returns the cached resource of a file, loading it again if it's been
+     * modified.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    private Resource resourceOf(File file) throws IOException {
+        String path = file.getPath();
+        Resource resource = cache.get(path);
+        if (resource == null || resource.lastModified != file.lastModified() || resource.length != file.length()) {
+            resource = new Resource(file, cacheThreshold);
+            cache.put(path, resource);
+        }
+        return resource;
+    }
+
+    private static boolean isNotModified(HttpRequest request, Resource resource) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.Names.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.contains(resource.etag) || ifNoneMatch.trim().equals("*");
+        }
+        String ifModifiedSince = request.getHeader(HttpHeaders.Names.IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null) {
+            try {
+                return createDateFormat().parse(ifModifiedSince).getTime() / 1000 >= resource.lastModified / 1000;
+            } catch (ParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static DateFormat createDateFormat() {
+        DateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    /**
+     * A file with its encoded content and validators.
+     */
+    private static class Resource {
+
+        private final long lastModified;
+        private final long length;
+        private final String etag;
+        private final String lastModifiedText;
+        private final String contentType;
+        private final ChannelBuffer content;
+        private final ChannelBuffer gzipped;
+        private final boolean mapped;
+
+        private Resource(File file, int cacheThreshold) throws IOException {
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+            this.etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+            this.lastModifiedText = createDateFormat().format(lastModified);
+            String name = file.getName();
+            String type = contentTypes.get(name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.US));
+            this.contentType = type == null ? "application/octet-stream" : type;
+            this.mapped = length > cacheThreshold;
+            if (mapped) {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    this.content = ChannelBuffers.wrappedBuffer(
+                            raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length));
+                } finally {
+                    raf.close();
+                }
+                this.gzipped = null;
+            } else {
+                byte[] bytes = new byte[(int) length];
+                FileInputStream in = new FileInputStream(file);
+                try {
+                    int read = 0;
+                    while (read < bytes.length) {
+                        int n = in.read(bytes, read, bytes.length - read);
+                        if (n < 0) {
+                            break;
+                        }
+                        read += n;
+                    }
+                } finally {
+                    in.close();
+                }
+                this.content = ChannelBuffers.unmodifiableBuffer(ChannelBuffers.wrappedBuffer(bytes));
+                this.gzipped = gzip(bytes);
+            }
+        }
+
+        /**
+         * Returns the gzipped bytes, or null if they aren't smaller.
+         */
+        private static ChannelBuffer gzip(byte[] bytes) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 32);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(bytes);
+            gzip.close();
+            if (out.size() >= bytes.length) {
+                return null;
+            }
+            return ChannelBuffers.unmodifiableBuffer(ChannelBuffers.wrappedBuffer(out.toByteArray()));
+        }
+    }
+}
@@ -15,9 +15,6 @@
  */
 package org.jboss.netty.example.bayeux.chat;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -58,15 +55,10 @@ public class BayeuxHandler extends SimpleChannelUpstreamHandler {
     private final StringBuilder responseContent = new StringBuilder();
     private static final InternalLogger logger =
             InternalLoggerFactory.getInstance(BayeuxHandler.class.getName());
-    private String root;
 
     public BayeuxHandler() {
     }
 
-    public BayeuxHandler(String root) {
-        this.root = root;
-    }
-
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
         if (e.getMessage() instanceof BayeuxConnection) {
@@ -74,55 +66,43 @@ public class BayeuxHandler extends SimpleChannelUpstreamHandler {
         } else if (!readingChunks && e.getMessage() instanceof HttpRequest) {
             request = (HttpRequest) e.getMessage();
 
-            File file = new File(root + File.separator + request.getUri());
-            if (file.exists() && file.isFile()) {
-                FileReader reader = new FileReader(file);
-                BufferedReader bufread = new BufferedReader(reader);
-                String read;
-                while ((read = bufread.readLine()) != null) {
-                    responseContent.append(read + "\r\n");
-                }
-                bufread.close();
-                writeResponse(e);
-            } else {
-                responseContent.append("WELCOME TO THE WILD WILD WEB SERVER<br/>");
-                responseContent.append("===================================<br/>");
-                responseContent.append("VERSION: " + request.getProtocolVersion().getText() + "<br/>");
-                if (request.containsHeader(HttpHeaders.Names.HOST)) {
-                    responseContent.append("HOSTNAME: " + request.getHeader(HttpHeaders.Names.HOST) + "<br/>");
-                }
-                responseContent.append("REQUEST_URI: " + request.getUri() + "<br/><br/>");
-                if (!request.getHeaderNames().isEmpty()) {
-                    for (String name : request.getHeaderNames()) {
-                        for (String value : request.getHeaders(name)) {
-                            responseContent.append("HEADER: " + name + " = " + value + "<br/>");
-                        }
+            responseContent.append("WELCOME TO THE WILD WILD WEB SERVER<br/>");
+            responseContent.append("===================================<br/>");
+            responseContent.append("VERSION: " + request.getProtocolVersion().getText() + "<br/>");
+            if (request.containsHeader(HttpHeaders.Names.HOST)) {
+                responseContent.append("HOSTNAME: " + request.getHeader(HttpHeaders.Names.HOST) + "<br/>");
+            }
+            responseContent.append("REQUEST_URI: " + request.getUri() + "<br/><br/>");
+            if (!request.getHeaderNames().isEmpty()) {
+                for (String name : request.getHeaderNames()) {
+                    for (String value : request.getHeaders(name)) {
+                        responseContent.append("HEADER: " + name + " = " + value + "<br/>");
                     }
-                    responseContent.append("<br/>");
                 }
+                responseContent.append("<br/>");
+            }
 
-                QueryStringDecoder queryStringDecoder = new QueryStringDecoder(request.getUri());
-                Map<String, List<String>> params = queryStringDecoder.getParameters();
-                if (!params.isEmpty()) {
-                    for (Entry<String, List<String>> p : params.entrySet()) {
-                        String key = p.getKey();
-                        List<String> vals = p.getValue();
-                        for (String val : vals) {
-                            responseContent.append("PARAM: " + key + " = " + val + "<br/>");
-                        }
+            QueryStringDecoder queryStringDecoder = new QueryStringDecoder(request.getUri());
+            Map<String, List<String>> params = queryStringDecoder.getParameters();
+            if (!params.isEmpty()) {
+                for (Entry<String, List<String>> p : params.entrySet()) {
+                    String key = p.getKey();
+                    List<String> vals = p.getValue();
+                    for (String val : vals) {
+                        responseContent.append("PARAM: " + key + " = " + val + "<br/>");
                     }
-                    responseContent.append("<br/>");
                 }
+                responseContent.append("<br/>");
+            }
 
-                if (request.isChunked()) {
-                    readingChunks = true;
-                } else {
-                    ChannelBuffer content = request.getContent();
-                    if (content.readable()) {
-                        responseContent.append("CONTENT: " + content.toString("UTF-8") + "<br/>");
-                    }
-                    writeResponse(e);
+            if (request.isChunked()) {
+                readingChunks = true;
+            } else {
+                ChannelBuffer content = request.getContent();
+                if (content.readable()) {
+                    responseContent.append("CONTENT: " + content.toString("UTF-8") + "<br/>");
                 }
+                writeResponse(e);
             }
         } else {
             HttpChunk chunk = (HttpChunk) e.getMessage();
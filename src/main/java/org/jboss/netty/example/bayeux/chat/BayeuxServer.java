@@ -20,6 +20,7 @@ import java.util.concurrent.Executors;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.bayeux.BayeuxRouter;
 
 /**
  *
@@ -34,7 +35,7 @@ public class BayeuxServer {
                 Executors.newCachedThreadPool());
 
         ServerBootstrap bootstrap = new ServerBootstrap(factory);
-        bootstrap.setPipelineFactory(new BayeuxServerPipelineFactory());
+        bootstrap.setPipelineFactory(new BayeuxServerPipelineFactory(new BayeuxRouter()));
         bootstrap.setOption("child.tcpNoDelay", true);
         bootstrap.setOption("child.keepAlive", true);
 
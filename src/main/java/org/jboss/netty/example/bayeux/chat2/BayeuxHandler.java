@@ -15,9 +15,6 @@
  */
 package org.jboss.netty.example.bayeux.chat2;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -50,25 +47,20 @@ public class BayeuxHandler extends SimpleChannelUpstreamHandler {
     private final StringBuilder responseContent = new StringBuilder();
     private static final InternalLogger logger =
             InternalLoggerFactory.getInstance(BayeuxHandler.class.getName());
-    private String root;
 
     public BayeuxHandler() {
     }
 
-    public BayeuxHandler(String root) {
-        this.root = root;
-    }
-
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
         if (e.getMessage() instanceof BayeuxConnection) {
             BayeuxConnection connection = (BayeuxConnection) e.getMessage();
+            BayeuxRouter router = connection.getRouter();
             BayeuxMessage bayeux = connection.getFromUpstream();
             List<BayeuxMessage> list = new ArrayList<BayeuxMessage>();
             while (bayeux != null) {
                 if (bayeux instanceof HandshakeRequest) {
                     HandshakeRequest handshakeRequest = (HandshakeRequest) bayeux;
-                    BayeuxRouter router = BayeuxRouter.getInstance();
                     Map<String, BayeuxConnection> connections = router.getConnections();
                     int CONNECTION_LIMIT = 3;
                     if (connections.size() < CONNECTION_LIMIT + 1) {//Available connections
@@ -95,11 +87,11 @@ public class BayeuxHandler extends SimpleChannelUpstreamHandler {
                         data.put("from", "server");
                         data.put("to", from);
                         if ("size".equals(cmd)) {
-                            data.put("chat", "current number of connections  is " + BayeuxRouter.getInstance().countConnections());
+                            data.put("chat", "current number of connections  is " + router.countConnections());
                         } else if ("all".equals(cmd)) {
                             StringBuilder responseChat = new StringBuilder("");
-                            if (BayeuxRouter.getInstance().countConnections() > 0) {
-                                for (Entry<String, BayeuxConnection> entry : BayeuxRouter.getInstance().getConnections().entrySet()) {
+                            if (router.countConnections() > 0) {
+                                for (Entry<String, BayeuxConnection> entry : router.getConnections().entrySet()) {
                                     BayeuxConnection conn = entry.getValue();
                                     responseChat.append(conn.getClientId()).append("(").append(conn.getClientAddress()).append(",");
                                     responseChat.append(conn.getServerAddress() + conn.getRequestedUri()).append(")");
@@ -119,7 +111,7 @@ public class BayeuxHandler extends SimpleChannelUpstreamHandler {
 
                             data.put("chat", responseChat.toString());
                         } else if ("clear".equals(cmd)) {
-                            BayeuxRouter.getInstance().clear();
+                            router.clear();
                             return;
                         } else {
                             data.put("chat", "unknown command \"/" + cmd + "\"");
@@ -143,54 +135,43 @@ public class BayeuxHandler extends SimpleChannelUpstreamHandler {
         } else if (!readingChunks && e.getMessage() instanceof HttpRequest) {
             request = (HttpRequest) e.getMessage();
 
-            File file = new File(root + File.separator + request.getUri());
-            if (file.exists() && file.isFile()) {
-                FileReader reader = new FileReader(file);
-                BufferedReader bufread = new BufferedReader(reader);
-                String read;
-                while ((read = bufread.readLine()) != null) {
-                    responseContent.append(read + "\r\n");
-                }
-                writeResponse(e);
-            } else {
-                responseContent.append("WELCOME TO THE WILD WILD WEB SERVER<br/>");
-                responseContent.append("===================================<br/>");
-                responseContent.append("VERSION: " + request.getProtocolVersion().getText() + "<br/>");
-                if (request.containsHeader(HttpHeaders.Names.HOST)) {
-                    responseContent.append("HOSTNAME: " + request.getHeader(HttpHeaders.Names.HOST) + "<br/>");
-                }
-                responseContent.append("REQUEST_URI: " + request.getUri() + "<br/><br/>");
-                if (!request.getHeaderNames().isEmpty()) {
-                    for (String name : request.getHeaderNames()) {
-                        for (String value : request.getHeaders(name)) {
-                            responseContent.append("HEADER: " + name + " = " + value + "<br/>");
-                        }
+            responseContent.append("WELCOME TO THE WILD WILD WEB SERVER<br/>");
+            responseContent.append("===================================<br/>");
+            responseContent.append("VERSION: " + request.getProtocolVersion().getText() + "<br/>");
+            if (request.containsHeader(HttpHeaders.Names.HOST)) {
+                responseContent.append("HOSTNAME: " + request.getHeader(HttpHeaders.Names.HOST) + "<br/>");
+            }
+            responseContent.append("REQUEST_URI: " + request.getUri() + "<br/><br/>");
+            if (!request.getHeaderNames().isEmpty()) {
+                for (String name : request.getHeaderNames()) {
+                    for (String value : request.getHeaders(name)) {
+                        responseContent.append("HEADER: " + name + " = " + value + "<br/>");
                     }
-                    responseContent.append("<br/>");
                 }
+                responseContent.append("<br/>");
+            }
 
-                QueryStringDecoder queryStringDecoder = new QueryStringDecoder(request.getUri());
-                Map<String, List<String>> params = queryStringDecoder.getParameters();
-                if (!params.isEmpty()) {
-                    for (Entry<String, List<String>> p : params.entrySet()) {
-                        String key = p.getKey();
-                        List<String> vals = p.getValue();
-                        for (String val : vals) {
-                            responseContent.append("PARAM: " + key + " = " + val + "<br/>");
-                        }
+            QueryStringDecoder queryStringDecoder = new QueryStringDecoder(request.getUri());
+            Map<String, List<String>> params = queryStringDecoder.getParameters();
+            if (!params.isEmpty()) {
+                for (Entry<String, List<String>> p : params.entrySet()) {
+                    String key = p.getKey();
+                    List<String> vals = p.getValue();
+                    for (String val : vals) {
+                        responseContent.append("PARAM: " + key + " = " + val + "<br/>");
                     }
-                    responseContent.append("<br/>");
                 }
+                responseContent.append("<br/>");
+            }
 
-                if (request.isChunked()) {
-                    readingChunks = true;
-                } else {
-                    ChannelBuffer content = request.getContent();
-                    if (content.readable()) {
-                        responseContent.append("CONTENT: " + content.toString("UTF-8") + "<br/>");
-                    }
-                    writeResponse(e);
+            if (request.isChunked()) {
+                readingChunks = true;
+            } else {
+                ChannelBuffer content = request.getContent();
+                if (content.readable()) {
+                    responseContent.append("CONTENT: " + content.toString("UTF-8") + "<br/>");
                 }
+                writeResponse(e);
             }
         } else {
             HttpChunk chunk = (HttpChunk) e.getMessage();
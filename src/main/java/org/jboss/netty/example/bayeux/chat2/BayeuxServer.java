@@ -20,6 +20,10 @@ import java.util.concurrent.Executors;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.bayeux.BayeuxConnection;
+import org.jboss.netty.handler.codec.bayeux.BayeuxDispatcher;
+import org.jboss.netty.handler.codec.bayeux.BayeuxRouter;
+import org.jboss.netty.handler.codec.bayeux.ShardedBayeuxRouter;
 
 /**
  *
@@ -34,7 +38,11 @@ public class BayeuxServer {
                 Executors.newCachedThreadPool());
 
         ServerBootstrap bootstrap = new ServerBootstrap(factory);
-        bootstrap.setPipelineFactory(new BayeuxServerPipelineFactory());
+        BayeuxRouter router = new ShardedBayeuxRouter();
+        router.setDispatcher(new BayeuxDispatcher(router));
+        router.addConnectionType(BayeuxConnection.TYPE.IFRAME);
+        router.addConnectionType(BayeuxConnection.TYPE.HTTP_STREAMING);
+        bootstrap.setPipelineFactory(new BayeuxServerPipelineFactory(router));
         bootstrap.setOption("child.tcpNoDelay", true);
         bootstrap.setOption("child.keepAlive", true);
 
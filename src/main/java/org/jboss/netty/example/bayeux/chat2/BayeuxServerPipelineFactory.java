@@ -19,8 +19,11 @@ import static org.jboss.netty.channel.Channels.*;
 
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.example.bayeux.StaticResourceHandler;
 import org.jboss.netty.handler.codec.bayeux.BayeuxDecoder;
 import org.jboss.netty.handler.codec.bayeux.BayeuxEncoder;
+import org.jboss.netty.handler.codec.bayeux.BayeuxRouter;
+import org.jboss.netty.handler.codec.bayeux.WebSocketUpgradeHandler;
 import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
 import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
 
@@ -30,6 +33,15 @@ import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
  */
 public class BayeuxServerPipelineFactory implements ChannelPipelineFactory {
 
+    private final BayeuxRouter router;
+    private final WebSocketUpgradeHandler webSocketHandler;
+    private final StaticResourceHandler staticHandler = new StaticResourceHandler("/home/daijun/Desktop/Root");//Change Root folder here
+
+    public BayeuxServerPipelineFactory(BayeuxRouter router) {
+        this.router = router;
+        this.webSocketHandler = new WebSocketUpgradeHandler(router);
+    }
+
     @Override
     public ChannelPipeline getPipeline() throws Exception {
         // Create a default pipeline implementation.
@@ -41,13 +53,15 @@ public class BayeuxServerPipelineFactory implements ChannelPipelineFactory {
         //pipeline.addLast("ssl", new SslHandler(engine));
 
         pipeline.addLast("httpDecoder", new HttpRequestDecoder());
-        pipeline.addLast("bayeuxDecoder", new BayeuxDecoder());
+        pipeline.addLast("webSocket", webSocketHandler);
+        pipeline.addLast("bayeuxDecoder", new BayeuxDecoder(router));
         // Uncomment the following line if you don't want to handle HttpChunks.
         //pipeline.addLast("aggregator", new HttpChunkAggregator(1048576));
         
         pipeline.addLast("httpEncoder", new HttpResponseEncoder());
-        pipeline.addLast("bayeuxEncoder", new BayeuxEncoder());
-        pipeline.addLast("handler", new BayeuxHandler("/home/daijun/Desktop/Root"));//Change Root folder here
+        pipeline.addLast("bayeuxEncoder", new BayeuxEncoder(router));
+        pipeline.addLast("static", staticHandler);
+        pipeline.addLast("handler", new BayeuxHandler());
         return pipeline;
     }
 
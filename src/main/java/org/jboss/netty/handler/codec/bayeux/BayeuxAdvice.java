@@ -15,6 +15,7 @@
  */
 package org.jboss.netty.handler.codec.bayeux;
 
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -50,4 +51,22 @@ public class BayeuxAdvice extends BayeuxData implements BayeuxInterface {
         map.put("interval", interval);
         map.put("multiple-clients", multipleClients);
     }
+
+    /**
+     * Construct a connect advice, with
+     * <a href="http://svn.cometd.org/trunk/bayeux/bayeux.html#toc_36">timeout</a>
+     * of holding connect requests by server, and interval of reconnecting,
+     * both in milliseconds.
+     *
+     * @param reconnect
+     * @param timeout
+     * @param interval
+     */
+    public BayeuxAdvice(String reconnect, long timeout, long interval) {
+        Map<String, Object> advice = new HashMap<String, Object>();
+        advice.put("reconnect", reconnect);
+        advice.put("timeout", timeout);
+        advice.put("interval", interval);
+        map = advice;
+    }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+/**
+ * A clock of ISO 8601 timestamps in GMT, like 2009-09-08T11:49:02 or
+ * 2009-09-08T11:49:02.35 with hundredths of a second. The formatted time is
+ * cached and computed again at most once per tick, a second or a hundredth,
+ * so reading it is a volatile read, and never takes a lock or allocates
+ * while the tick lasts.
+ *
+ * Several threads may format the same new tick at once, which is harmless
+ * since they produce the same string.
+ *
+ * @author daijun
+ */
+public class BayeuxClock {
+
+    private static final BayeuxClock SECONDS = new BayeuxClock(false);
+    private static final BayeuxClock HUNDREDTHS = new BayeuxClock(true);
+    private final boolean precise;
+    private final long tickMillis;
+    private volatile Tick tick = new Tick(Long.MIN_VALUE, null);
+
+    /**
+     * Create a clock ticking every second, or every hundredth of a second if
+     * it's precise.
+     *
+     * @param precise
+     */
+    public BayeuxClock(boolean precise) {
+        this.precise = precise;
+        this.tickMillis = precise ? 10 : 1000;
+    }
+
+    /**
+     * Returns the shared clock of seconds, or of hundredths if precise.
+     *
+     * @param precise
+     * @return
+     */
+    public static BayeuxClock getInstance(boolean precise) {
+        return precise ? HUNDREDTHS : SECONDS;
+    }
+
+    /**
+     * Returns current time.
+     *
+     * @return
+     */
+    public String getCurrentTime() {
+        long index = floorDiv(System.currentTimeMillis(), tickMillis);
+        Tick current = tick;
+        if (current.index != index) {
+            current = new Tick(index, format(index * tickMillis, precise));
+            tick = current;
+        }
+        return current.text;
+    }
+
+    /**
+     * Format milliseconds since epoch in ISO 8601, with hundredths of a
+     * second if it's precise.
+     *
+     * @param millis
+     * @param precise
+     * @return
+     */
+    public static String format(long millis, boolean precise) {
+        long seconds = floorDiv(millis, 1000);
+        long days = floorDiv(seconds, 86400);
+        int secondOfDay = (int) (seconds - days * 86400);
+
+        //Civil date of days since 1970-01-01 in proleptic Gregorian calendar
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        char[] chars = new char[precise ? 22 : 19];
+        put(chars, 0, (int) year, 4);
+        chars[4] = '-';
+        put(chars, 5, month, 2);
+        chars[7] = '-';
+        put(chars, 8, day, 2);
+        chars[10] = 'T';
+        put(chars, 11, secondOfDay / 3600, 2);
+        chars[13] = ':';
+        put(chars, 14, secondOfDay / 60 % 60, 2);
+        chars[16] = ':';
+        put(chars, 17, secondOfDay % 60, 2);
+        if (precise) {
+            chars[19] = '.';
+            put(chars, 20, (int) (millis - seconds * 1000) / 10, 2);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Put a number as given count of decimal digits, padded with zeros.
+     */
+    private static void put(char[] chars, int offset, int value, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+
+    /**
+     * A tick and its formatted time, replaced as a whole.
+     */
+    private static class Tick {
+
+        private final long index;
+        private final String text;
+
+        private Tick(long index, String text) {
+            this.index = index;
+            this.text = text;
+        }
+    }
+}
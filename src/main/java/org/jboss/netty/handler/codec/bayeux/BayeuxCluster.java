@@ -0,0 +1,66 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import org.jboss.netty.util.ExternalResourceReleasable;
+
+/**
+ * A message bus joining routers of several nodes into one Bayeux service.
+ * Set it to a router by BayeuxRouter.setCluster(), then messages published
+ * on any node reach subscribers on all the nodes.
+ *
+ * Routing is interest based. Router tells its cluster when a subscription
+ * gets its first local listener and when it loses the last one, and the
+ * cluster shares these with peers, so that a published message is only sent
+ * to peers having subscribers of its channel.
+ *
+ * Messages received from peers are passed to BayeuxRouter.receive(), which
+ * delivers them locally and never forwards them again.
+ *
+ * @author daijun
+ */
+public interface BayeuxCluster extends ExternalResourceReleasable {
+
+    /**
+     * Attach the cluster to the local router, which receives messages
+     * published on peers.
+     *
+     * @param router
+     */
+    void join(BayeuxRouter router);
+
+    /**
+     * Local clients start listening to a subscription.
+     *
+     * @param subscription
+     */
+    void subscribe(String subscription);
+
+    /**
+     * The last local client stops listening to a subscription.
+     *
+     * @param subscription
+     */
+    void unsubscribe(String subscription);
+
+    /**
+     * Send a message published locally to peers, which have subscribers of
+     * its channel.
+     *
+     * @param deliver
+     */
+    void publish(DeliverEvent deliver);
+}
@@ -17,15 +17,24 @@ package org.jboss.netty.handler.codec.bayeux;
 
 import java.net.SocketAddress;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.logging.InternalLogger;
 import org.jboss.netty.logging.InternalLoggerFactory;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
 
 /**
  * A Bayeux connection is the same as the Bayeux <a href="http://svn.cometd.org/trunk/bayeux/bayeux.html#toc_19">Channel</a> in protocol document.
@@ -33,6 +42,22 @@ import org.jboss.netty.logging.InternalLoggerFactory;
  * It's a connection between a client and a server, which can map many HTTP
  * connections between the two. And in another hand, it also provides user APIs
  * to develop Bayeux applications.
+ *
+ * Connect requests of a connected client are long-polling. The response is
+ * held until there are messages to send, or until the connect timeout of
+ * router elapses, so that client doesn't poll again and again.
+ *
+ * HTTP connections are kept alive if client asks for it. Each HTTP request
+ * accepted from client gets exactly one response, so nothing is written to
+ * an idle kept-alive HTTP connection.
+ *
+ * Deliveries in downstream queue are bounded, deliveries put to a full queue
+ * are handled by connection's overflow policy, which defaults to the router's.
+ * Responses to client's requests are always queued.
+ *
+ * Deliveries can be batched. A delivery waits up to the batch delay for
+ * following ones, unless there are batch size messages queued, so that they
+ * are sent to client in one response.
  * 
  * @author daijun
  */
@@ -40,17 +65,35 @@ public class BayeuxConnection {
 
     private static final InternalLogger logger =
             InternalLoggerFactory.getInstance(BayeuxEncoder.class.getName());
+    private final BayeuxRouter router;
     private String clientId;
     private TYPE connectionType;
     private String jsonp;
     private String connectionId;//Currently it's value equals clientId's and isn't used.
-    private STATE state;
+    private volatile STATE state;
     private Channel channel;
     private String id;//Message id of a connection
     private boolean isCommented = false;//Wrap response JSON string with comment
-    private final LinkedList<BayeuxMessage> upstreamQueue = new LinkedList<BayeuxMessage>();//Receiving queue
-    private final LinkedList<BayeuxMessage> downstreamQueue = new LinkedList<BayeuxMessage>();//Sending queue
-    private final LinkedList<String> subscriptions = new LinkedList<String>();//Subscriptions, which are listenning to
+    private final Queue<BayeuxMessage> upstreamQueue = new ConcurrentLinkedQueue<BayeuxMessage>();//Receiving queue
+    private final Queue<BayeuxMessage> downstreamQueue = new ConcurrentLinkedQueue<BayeuxMessage>();//Sending queue, polled by flush() and by overflow of deliveries
+    private final AtomicInteger downstreamQueueSize = new AtomicInteger();
+    private final AtomicInteger downstreamDeliveries = new AtomicInteger();//Deliveries in sending queue, softly bounded by capacity
+    private volatile boolean isOverflowing = false;//Deliveries dropped since last flush, to warn once
+    private volatile int downstreamCapacity;
+    private volatile OVERFLOW overflow;
+    private volatile int batchSize;//Messages to flush a batch immediately, 0 for no limit
+    private volatile long batchDelay;//Microseconds to wait for more messages of a batch, 0 for no batching
+    private Timeout batchTimeout;//Timeout of current batch, guarded by this
+    private ConnectResponse heldConnect;//Long-polling connect response, guarded by this
+    private Timeout heldTimeout;//Timeout of held connect response, guarded by this
+    private boolean isRequested = false;//An HTTP request is waiting for response on channel, guarded by this
+    private boolean keepAlive = false;//Keep HTTP connection open after responding, guarded by this
+    private BayeuxEncoding encoding = BayeuxEncoding.IDENTITY;//Coding accepted by client for the response, guarded by this
+    private Channel stream;//WebSocket or streaming HTTP response, which is always ready for messages, guarded by this
+    private TYPE streamType;//Connection type of stream, guarded by this
+    private boolean isStreamStarted = false;//Header of streaming HTTP response is sent, guarded by this
+    private volatile long lastActivity = System.currentTimeMillis();//Time of last HTTP request from client, or response to it
+    private final List<String> subscriptions = new CopyOnWriteArrayList<String>();//Subscriptions, which are listenning to
     private String requestedUri;
     private String requestedHost;
     private SocketAddress clientAddress;
@@ -62,7 +105,9 @@ public class BayeuxConnection {
         LONG_POLLING_JSON_ENCODED,
         CALLBACK_POLLING,
         IFRAME,
-        FLASH
+        FLASH,
+        WEBSOCKET,
+        HTTP_STREAMING
     }
 
     public enum STATE {
@@ -83,16 +128,43 @@ public class BayeuxConnection {
         UNSUPPORTED_CONNECTION_TYPES,
         UNSUPPORTED_VERSION,
         REPEAT_SUBSCRIBE,
-        CONN_LIMIT_EXCEEDED
+        CONN_LIMIT_EXCEEDED,
+        QUEUE_OVERFLOW,
+        OVERLOADED
     }
 
     /**
-     * Initialize a BayeuxConnection with required properties.
-     * 
-     * @param channel
+     * Policies of putting a message to a full downstream queue.
      */
+    public enum OVERFLOW {
+
+        DROP_OLDEST,
+        DROP_NEWEST,
+        DISCONNECT
+    }
+
+    /**
+     * Initialize a BayeuxConnection belonging to the default router.
+     *
+     * @deprecated pass a router to BayeuxConnection(BayeuxRouter) instead
+     */
+    @Deprecated
     public BayeuxConnection() {
+        this(BayeuxRouter.getInstance());
+    }
+
+    /**
+     * Initialize a BayeuxConnection belonging to a router.
+     *
+     * @param router
+     */
+    public BayeuxConnection(BayeuxRouter router) {
+        this.router = router;
         this.state = STATE.INITIAL;
+        this.downstreamCapacity = router.getDownstreamCapacity();
+        this.overflow = router.getOverflow();
+        this.batchSize = router.getBatchSize();
+        this.batchDelay = router.getBatchDelay();
     }
 
     /**
@@ -122,29 +194,311 @@ public class BayeuxConnection {
      * @return
      */
     public BayeuxMessage getFromUpstream() {
-        return upstreamQueue.pollFirst();
+        return upstreamQueue.poll();
     }
 
     /**
      * If connection's downstream queue is not empty, write out all the messages
      * in it to client and clear it.
+     *
+     * Deliver events are not encoded again here, their shared encoded bytes
+     * are composed into the response without copying.
      */
     public synchronized void flush() {
-        String response = null;
-        if (!downstreamQueue.isEmpty()) {
-            response = JSONParser.toJSON(downstreamQueue);
-            if (isCommented) {
-                response = "/*" + response + "*/";
+        if (!downstreamQueue.isEmpty() && isWritable()) {
+            List<BayeuxMessage> messages = new ArrayList<BayeuxMessage>(downstreamQueueSize.get() + 1);
+            BayeuxMessage bayeux;
+            while ((bayeux = downstreamQueue.poll()) != null) {
+                downstreamQueueSize.decrementAndGet();
+                if (bayeux instanceof DeliverEvent) {
+                    downstreamDeliveries.decrementAndGet();
+                }
+                messages.add(bayeux);
+            }
+            isOverflowing = false;
+            if (heldConnect != null) {//Messages arrived, so answer the long-polling connect with them
+                messages.add(heldConnect);
+                release();
             }
-            if (jsonp != null && jsonp.length() > 0) {
-                response = jsonp + "(" + response + ")";
+            Map<ChannelBuffer, DeliverEvent> delivers = new IdentityHashMap<ChannelBuffer, DeliverEvent>();
+            JSONWriter writer = encode(messages, delivers);
+            write(writer.getBuffer(), delivers.isEmpty() ? null : writer.getParts(), delivers);
+            if (batchTimeout != null) {
+                batchTimeout.cancel();
+                batchTimeout = null;
             }
         }
-        if (response != null && response.length() > 0 && channel.isWritable()) {
-            ChannelFuture future = channel.write(response);
+    }
+
+    /**
+     * Flush downstream messages when current batch is complete, that's when
+     * batch delay elapses, or batch size messages are queued. If batching is
+     * disabled, it's the same as flush().
+     *
+     * The delay is rounded up to the tick of router's timer.
+     */
+    public synchronized void flushBatch() {
+        long delay = batchDelay;
+        int size = batchSize;
+        if (delay <= 0 || (size > 0 && downstreamQueueSize.get() >= size)) {
+            flush();
+        } else if (batchTimeout == null) {
+            batchTimeout = router.getTimer().newTimeout(new TimerTask() {
+
+                @Override
+                public void run(Timeout timeout) throws Exception {
+                    flushBatch(timeout);
+                }
+            }, delay, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private synchronized void flushBatch(Timeout timeout) {
+        if (batchTimeout == timeout) {
+            batchTimeout = null;
+            flush();
+        }
+    }
+
+    /**
+     * Accept an HTTP request of client on a channel, which will be answered
+     * by next flush.
+     *
+     * @param channel
+     * @param keepAlive whether to keep HTTP connection open after answering
+     */
+    public synchronized void accept(Channel channel, boolean keepAlive) {
+        accept(channel, keepAlive, BayeuxEncoding.IDENTITY);
+    }
+
+    /**
+     * Accept an HTTP request of client on a channel, whose response may be
+     * compressed in the coding accepted by client.
+     *
+     * @param channel
+     * @param keepAlive whether to keep HTTP connection open after answering
+     * @param encoding coding negotiated by Accept-Encoding of the request
+     */
+    public synchronized void accept(Channel channel, boolean keepAlive, BayeuxEncoding encoding) {
+        this.channel = channel;
+        this.keepAlive = keepAlive;
+        this.encoding = encoding;
+        this.isRequested = true;
+        this.lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Accept a WebSocket frame of client on a channel. Since then, the socket
+     * is the connection's stream, to which messages are flushed in frames as
+     * soon as they are queued.
+     *
+     * @param channel
+     */
+    public synchronized void acceptWebSocket(Channel channel) {
+        if (stream != null && stream != channel) {//Client opened a new stream instead
+            stream.close();
+        }
+        this.channel = channel;
+        this.stream = channel;
+        this.streamType = TYPE.WEBSOCKET;
+        this.jsonp = null;
+        this.lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Make the accepted HTTP request a stream of given connection type. Its
+     * response is never completed, messages are flushed to it in chunks as
+     * soon as they are queued, until client closes it.
+     *
+     * @param streamType IFRAME or HTTP_STREAMING
+     */
+    private synchronized void stream(TYPE streamType) {
+        if (isRequested) {
+            if (stream != null && stream != channel) {//Client opened a new stream instead
+                stream.close();
+            }
+            this.stream = channel;
+            this.streamType = streamType;
+            this.isStreamStarted = false;
+            this.jsonp = null;
+            this.isRequested = false;
+        }
+    }
+
+    /**
+     * Returns whether messages can be written to client, either on the
+     * accepted HTTP request or on the stream.
+     *
+     * @return
+     */
+    private boolean isWritable() {
+        if (isRequested) {
+            return channel.isWritable();
+        }
+        return stream != null && stream.isWritable();
+    }
+
+    /**
+     * Returns milliseconds since client's last HTTP request or the response
+     * of it, or 0 if a long-polling connect is held on an open channel, or
+     * client's stream is open.
+     *
+     * @return
+     */
+    public synchronized long getIdleTime() {
+        if ((heldConnect != null && channel.isOpen()) || (stream != null && stream.isOpen())) {
+            return 0;
+        }
+        return System.currentTimeMillis() - lastActivity;
+    }
+
+    /**
+     * Write messages in the response of accepted HTTP request, and close HTTP
+     * connection after it unless it's kept alive. If no request is waiting,
+     * they are written to the stream, in a WebSocket frame or a chunk of
+     * streaming HTTP response.
+     *
+     * The response is compressed if client accepts it and it's not smaller
+     * than router's compression threshold. Streams are never compressed.
+     * Deliver events in it are not deflated again, their shared deflated
+     * bytes are joined into the response.
+     *
+     * @param content
+     * @param parts buffers composing content, or null if it has no deliver
+     * event
+     * @param delivers deliver events by their encoded buffers among parts
+     */
+    private void write(ChannelBuffer content, List<ChannelBuffer> parts, Map<ChannelBuffer, DeliverEvent> delivers) {
+        if (!isRequested) {
+            if (streamType == TYPE.WEBSOCKET) {
+                stream.write(new WebSocketFrame(content));
+            } else {
+                stream.write(new BayeuxResponse(content, streamType, !isStreamStarted));
+                isStreamStarted = true;
+            }
+            return;
+        }
+        int threshold = router.getCompressionThreshold();
+        BayeuxResponse response;
+        if (encoding == BayeuxEncoding.IDENTITY || threshold < 0 || content.readableBytes() < threshold) {
+            response = new BayeuxResponse(content, keepAlive);
+        } else if (parts != null && BayeuxEncoding.isSegmentSupported()) {
+            List<ChannelBuffer> segments = new ArrayList<ChannelBuffer>(parts.size());
+            for (ChannelBuffer part : parts) {
+                DeliverEvent deliver = delivers.get(part);
+                segments.add(deliver == null ? null : deliver.getDeflated());
+            }
+            response = new BayeuxResponse(encoding.encode(parts, segments), keepAlive, encoding);
+        } else {
+            response = new BayeuxResponse(encoding.encode(content), keepAlive, encoding);
+        }
+        ChannelFuture future = channel.write(response);
+        if (!keepAlive) {
             future.addListener(ChannelFutureListener.CLOSE);
-            downstreamQueue.clear();
         }
+        isRequested = false;
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Hold a connect response until messages arrive or the connect timeout
+     * elapses. If another one is held, it's answered first.
+     *
+     * @param connectResponse
+     */
+    private synchronized void hold(ConnectResponse connectResponse) {
+        long timeout = router.getConnectTimeout();
+        if (heldConnect != null) {
+            offer(heldConnect);
+            release();
+        }
+        if (timeout <= 0) {
+            offer(connectResponse);
+            return;
+        }
+        heldConnect = connectResponse;
+        heldTimeout = router.getTimer().newTimeout(new TimerTask() {
+
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                resume(timeout);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Answer the held connect response immediately, if there is one. It's
+     * called before client switches to another HTTP connection.
+     */
+    public synchronized void resume() {
+        if (heldConnect != null) {
+            if (channel.isOpen()) {//Nobody is waiting for it if client has gone
+                offer(heldConnect);
+            } else {
+                isRequested = false;
+            }
+            release();
+            flush();
+        }
+    }
+
+    /**
+     * Answer the held connect response when its timeout elapses, if it's not
+     * answered yet.
+     *
+     * @param timeout
+     */
+    private synchronized void resume(Timeout timeout) {
+        if (heldTimeout == timeout) {
+            resume();
+        }
+    }
+
+    private void release() {
+        heldConnect = null;
+        if (heldTimeout != null) {
+            heldTimeout.cancel();
+            heldTimeout = null;
+        }
+    }
+
+    /**
+     * Encode messages to a JSON array, wrapped with comment or JSONP callback
+     * if client asks for them.
+     *
+     * @param messages
+     * @param delivers map to put deliver events by their encoded buffers
+     * @return
+     */
+    private JSONWriter encode(List<BayeuxMessage> messages, Map<ChannelBuffer, DeliverEvent> delivers) {
+        long start = System.nanoTime();
+        JSONWriter writer = new JSONWriter();
+        boolean isCallback = jsonp != null && jsonp.length() > 0;
+        if (isCallback) {
+            writer.raw(jsonp).raw("(");
+        }
+        if (isCommented) {
+            writer.raw("/*");
+        }
+        writer.beginArray();
+        for (BayeuxMessage bayeux : messages) {
+            if (bayeux instanceof DeliverEvent) {
+                ChannelBuffer encoded = ((DeliverEvent) bayeux).getEncoded();
+                delivers.put(encoded, (DeliverEvent) bayeux);
+                writer.encoded(encoded);
+            } else {
+                bayeux.writeTo(writer);
+            }
+        }
+        writer.endArray();
+        if (isCommented) {
+            writer.raw("*/");
+        }
+        if (isCallback) {
+            writer.raw(")");
+        }
+        router.getMetrics().encoded(writer.getBuffer().readableBytes(), System.nanoTime() - start);
+        return writer;
     }
 
     /**
@@ -152,12 +506,112 @@ public class BayeuxConnection {
      * not sent to client immediatly. It with other messages in downstream queue
      * will be flush out, when flush() method is called for the next time.
      *
+     * Only deliveries count against the capacity, responses are always queued.
+     * The bound is soft: deliveries are counted beside the queue, so racing
+     * publishers, or clear() while they're putting, may leave a few more
+     * deliveries queued than the capacity for a while.
+     *
+     * Dropped deliveries are counted by router's metrics, and warned once
+     * until the queue is flushed again.
+     *
      * @param bayeux
      */
     public void putToDownstream(BayeuxMessage bayeux) {
-        if (bayeux != null) {
-            downstreamQueue.add(bayeux);
+        if (bayeux == null) {
+            return;
+        }
+        if (!(bayeux instanceof DeliverEvent)) {
+            offer(bayeux);
+            return;
+        }
+        if (downstreamDeliveries.incrementAndGet() > downstreamCapacity) {
+            switch (overflow) {
+                case DROP_NEWEST:
+                    downstreamDeliveries.decrementAndGet();
+                    dropped("newest");
+                    return;
+                case DROP_OLDEST:
+                    if (dropOldestDeliver()) {
+                        dropped("oldest");
+                    }
+                    break;
+                default:
+                    downstreamDeliveries.decrementAndGet();
+                    disconnectOnOverflow();
+                    return;
+            }
         }
+        offer(bayeux);
+    }
+
+    /**
+     * Remove the oldest delivery from downstream queue, leaving responses
+     * queued before it. It only walks past those responses, which are few,
+     * and retries if flush() polls the delivery first. Returns false if
+     * there is no delivery left.
+     */
+    private boolean dropOldestDeliver() {
+        while (true) {
+            BayeuxMessage oldest = null;
+            for (BayeuxMessage bayeux : downstreamQueue) {
+                if (bayeux instanceof DeliverEvent) {
+                    oldest = bayeux;
+                    break;
+                }
+            }
+            if (oldest == null) {
+                return false;
+            }
+            if (downstreamQueue.remove(oldest)) {
+                downstreamQueueSize.decrementAndGet();
+                downstreamDeliveries.decrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Count a dropped delivery, and warn of the first one since last flush.
+     */
+    private void dropped(String which) {
+        router.getMetrics().dropped();
+        if (!isOverflowing) {
+            isOverflowing = true;
+            logger.warn("Downstream queue of " + clientId + " is full, dropping the " + which + " messages");
+        }
+    }
+
+    /**
+     * Put a message to downstream queue regardless of its capacity, which is
+     * a response the client is waiting for.
+     *
+     * @param bayeux
+     */
+    private void offer(BayeuxMessage bayeux) {
+        downstreamQueueSize.incrementAndGet();
+        downstreamQueue.offer(bayeux);
+    }
+
+    /**
+     * Disconnect a client whose downstream queue is full, and advise it to
+     * handshake again.
+     */
+    private synchronized void disconnectOnOverflow() {
+        if (state == STATE.DISCONNECTED) {
+            return;
+        }
+        logger.warn("Downstream queue of " + clientId + " is full, disconnected it");
+        state = STATE.DISCONNECTED;
+        router.removeConnection(this);
+        downstreamQueue.clear();
+        downstreamQueueSize.set(0);
+        downstreamDeliveries.set(0);
+        release();
+        ConnectResponse connectResponse = new ConnectResponse(clientId, false);
+        connectResponse.setAdvice(new BayeuxAdvice("handshake", 0, false));
+        connectResponse.setError(getValueOfError(ERROR.QUEUE_OVERFLOW, clientId));
+        offer(connectResponse);
+        flush();
     }
 
     /**
@@ -188,9 +642,7 @@ public class BayeuxConnection {
      * @param bayeuxes
      */
     public void send(List<BayeuxMessage> bayeuxes) {
-        for (BayeuxMessage bayeux : bayeuxes) {
-            putToDownstream(bayeux);
-        }
+        putToDownstream(bayeuxes);
         flush();
     }
 
@@ -199,10 +651,9 @@ public class BayeuxConnection {
      * 
      * @param response
      */
-    public void send(String response) {
-        if (channel.isWritable()) {
-            ChannelFuture future = channel.write(response);
-            future.addListener(ChannelFutureListener.CLOSE);
+    public synchronized void send(String response) {
+        if (isWritable()) {
+            write(ChannelBuffers.copiedBuffer(response, "UTF-8"), null, null);
         }
     }
 
@@ -211,14 +662,26 @@ public class BayeuxConnection {
      */
     public void clear() {
         upstreamQueue.clear();
-        downstreamQueue.clear();
+        synchronized (this) {
+            downstreamQueue.clear();
+            downstreamQueueSize.set(0);
+            downstreamDeliveries.set(0);
+            release();
+        }
     }
 
     /**
      * Close connection.
      */
     public void close() {
-        channel.close();
+        Channel current = channel;
+        if (current != null) {
+            current.close();
+        }
+        Channel currentStream = stream;
+        if (currentStream != null) {
+            currentStream.close();
+        }
     }
 
     /**
@@ -238,12 +701,10 @@ public class BayeuxConnection {
         //Handshake connection type
         TYPE[] clientSupportedConnectTypeList = handshakeRequest.getSupportedConnectionTypes();
         List<TYPE> matchedConnectTypeList = new ArrayList<TYPE>();
-        Map<TYPE, TYPE> serverSupportedConnectTypeList = new HashMap();
-        serverSupportedConnectTypeList.put(TYPE.LONG_POLLING, TYPE.LONG_POLLING);
-        serverSupportedConnectTypeList.put(TYPE.CALLBACK_POLLING, TYPE.CALLBACK_POLLING);
+        Set<TYPE> serverSupportedConnectTypeList = router.getConnectionTypes();
 
         for (int i = 0; i < clientSupportedConnectTypeList.length; i++) {
-            if (serverSupportedConnectTypeList.get(clientSupportedConnectTypeList[i]) != null) {
+            if (serverSupportedConnectTypeList.contains(clientSupportedConnectTypeList[i])) {
                 matchedConnectTypeList.add(clientSupportedConnectTypeList[i]);
             }
         }
@@ -251,9 +712,9 @@ public class BayeuxConnection {
         if (matchedConnectTypeList.isEmpty()) {
             handshakeResponse.setSuccessful(false);
             handshakeResponse.setError(getValueOfError(ERROR.UNSUPPORTED_CONNECTION_TYPES, JSONParser.toJSON(clientSupportedConnectTypeList)));
-            handshakeResponse.setSupportedConnectionTypes((new ArrayList<TYPE>(serverSupportedConnectTypeList.values())).toArray(new TYPE[0]));
+            handshakeResponse.setSupportedConnectionTypes(serverSupportedConnectTypeList.toArray(new TYPE[0]));
             putToDownstream(handshakeResponse);
-            BayeuxRouter.getInstance().removeConnection(this);
+            router.removeConnection(this);
             return;
         } else {
             handshakeResponse.setSuccessful(true);
@@ -283,7 +744,7 @@ public class BayeuxConnection {
             handshakeResponse.setMinimumVersion(serverMinimumVersion);
             handshakeResponse.setVersion(serverVersion);
             handshakeResponse.setError(getValueOfError(ERROR.UNSUPPORTED_VERSION, clientMinimumVersion + "," + clientVersion));
-            BayeuxRouter.getInstance().removeConnection(this);
+            router.removeConnection(this);
         }
         putToDownstream(handshakeResponse);
     }
@@ -294,14 +755,28 @@ public class BayeuxConnection {
      * @param connectRequest
      */
     public void connect(ConnectRequest connectRequest) {
+        TYPE type = connectRequest.getConnectionType();
+        boolean isStreaming = type == TYPE.IFRAME || type == TYPE.HTTP_STREAMING;
         if (this.state == STATE.HANDSHAKED) {
-            this.connectionType = connectRequest.getConnectionType();
+            this.connectionType = type;
             this.state = STATE.CONNECTED;
             ConnectResponse connectResponse = new ConnectResponse(connectRequest);
             connectResponse.setSuccessful(true);
+            connectResponse.setAdvice(new BayeuxAdvice("retry", router.getConnectTimeout(), router.getConnectInterval()));
+            if (isStreaming) {
+                stream(type);
+            }
             putToDownstream(connectResponse);
         } else if (this.state == STATE.CONNECTED) {
-            return;
+            ConnectResponse connectResponse = new ConnectResponse(connectRequest);
+            connectResponse.setSuccessful(true);
+            connectResponse.setAdvice(new BayeuxAdvice("retry", router.getConnectTimeout(), router.getConnectInterval()));
+            if (isStreaming) {//Reconnecting stream is answered at once, it's never held
+                stream(type);
+                putToDownstream(connectResponse);
+            } else {
+                hold(connectResponse);
+            }
         } else {
             ConnectResponse connectResponse = new ConnectResponse(connectRequest);
             connectResponse.setSuccessful(false);
@@ -309,7 +784,7 @@ public class BayeuxConnection {
             connectResponse.setError(getValueOfError(ERROR.UNKNOWN_ERROR, null));
             putToDownstream(connectResponse);
             this.state = STATE.DISCONNECTED;
-            BayeuxRouter.getInstance().removeConnection(this);
+            router.removeConnection(this);
         }
     }
 
@@ -319,7 +794,7 @@ public class BayeuxConnection {
      * @param disconnectRequest
      */
     public void disconnect(DisconnectRequest disconnectRequest) {
-        boolean successful = BayeuxRouter.getInstance().removeConnection(this);
+        boolean successful = router.removeConnection(this);
         subscriptions.clear();
         DisconnectResponse disconnectResponse = new DisconnectResponse(disconnectRequest);
         disconnectResponse.setSuccessful(successful);
@@ -330,22 +805,42 @@ public class BayeuxConnection {
     }
 
     /**
-     * Subscribe to channel.
+     * Subscribe to channel. If the request has ext "resume" with the log id
+     * of the last received message, and router has a log, logged messages
+     * after it follow the response. Messages published while subscribing
+     * may be received twice, which clients drop by their log ids.
      *
      * @param subscribeRequest
      */
     public void subscribe(SubscribeRequest subscribeRequest) {
         String subscription = subscribeRequest.getSubscription();
-        boolean successful = BayeuxRouter.getInstance().addListener(subscription, this);
-        SubscribeResponse subscribeResponse = new SubscribeResponse(subscribeRequest);
-        subscribeResponse.setSuccessful(successful);
+        boolean successful = router.addListener(subscription, this);
         if (successful) {
             subscriptions.add(subscription);
-        } else {
+            if (router.getConnection(clientId) != this) {//Removed before the subscription was recorded
+                router.removeListener(subscription, this);
+                subscriptions.remove(subscription);
+                successful = false;
+            }
+        }
+        SubscribeResponse subscribeResponse = new SubscribeResponse(subscribeRequest);
+        subscribeResponse.setSuccessful(successful);
+        if (!successful && router.getConnection(clientId) != this) {
+            subscribeResponse.setAdvice(new BayeuxAdvice("handshake", 0, false));
+            subscribeResponse.setError(getValueOfError(ERROR.UNKNOWN_CLIENT_ID, subscribeRequest.getClientId()));
+        } else if (!successful) {
             subscribeResponse.setAdvice(new BayeuxAdvice("retry", 0, false));
             subscribeResponse.setError(getValueOfError(ERROR.REPEAT_SUBSCRIBE, subscribeRequest.getClientId() + "," + subscribeRequest.getSubscription()));
         }
         putToDownstream(subscribeResponse);
+        BayeuxLog log = router.getLog();
+        BayeuxExt ext = subscribeRequest.getExt();
+        if (successful && log != null && ext != null && ext.get("resume") instanceof Number) {
+            long fromId = ((Number) ext.get("resume")).longValue();
+            for (DeliverEvent deliver : log.replay(subscription, fromId)) {
+                putToDownstream(deliver);
+            }
+        }
     }
 
     /**
@@ -355,7 +850,7 @@ public class BayeuxConnection {
      */
     public void unsubscribe(UnsubscribeRequest unsubscribeRequest) {
         String subscription = unsubscribeRequest.getSubscription();
-        boolean successful = BayeuxRouter.getInstance().removeListener(subscription, this);
+        boolean successful = router.removeListener(subscription, this);
         UnsubscribeResponse unsubscribeResponse = new UnsubscribeResponse(unsubscribeRequest);
         unsubscribeResponse.setSuccessful(successful);
         if (successful) {
@@ -368,7 +863,8 @@ public class BayeuxConnection {
     }
 
     /**
-     * Publish data to a channel
+     * Publish data to a channel. If router's dispatcher is full, client is
+     * advised to retry publishing later.
      *
      * @param publishRequest
      */
@@ -376,11 +872,15 @@ public class BayeuxConnection {
         DeliverEvent deliver=new DeliverEvent(publishRequest);
         deliver.setClientId(this.clientId);
         deliver.setId(this.id);
-        boolean successful = BayeuxRouter.getInstance().publish(this, deliver);
+        boolean publishable = router.isPublishable(deliver);
+        boolean successful = publishable && router.publish(this, deliver);
         PublishResponse publishResponse = new PublishResponse(publishRequest);
         publishResponse.setSuccessful(successful);
-        if (!successful) {
+        if (!publishable) {
             publishResponse.setError(getValueOfError(ERROR.UNKNOWN_CHANNEL, publishRequest.getClientId() + "," + publishRequest.getChannel()));
+        } else if (!successful) {
+            publishResponse.setError(getValueOfError(ERROR.OVERLOADED, publishRequest.getClientId() + "," + publishRequest.getChannel()));
+            publishResponse.setAdvice(new BayeuxAdvice("retry", router.getConnectTimeout(), router.getConnectInterval()));
         }
         putToDownstream(publishResponse);
     }
@@ -412,6 +912,10 @@ public class BayeuxConnection {
             return TYPE.IFRAME;
         } else if ("flash".equalsIgnoreCase(connection_type)) {
             return TYPE.FLASH;
+        } else if ("websocket".equalsIgnoreCase(connection_type)) {
+            return TYPE.WEBSOCKET;
+        } else if ("http-streaming".equalsIgnoreCase(connection_type)) {
+            return TYPE.HTTP_STREAMING;
         } else {
             return null;
         }
@@ -429,6 +933,10 @@ public class BayeuxConnection {
                 return "iframe";
             case FLASH:
                 return "flash";
+            case WEBSOCKET:
+                return "websocket";
+            case HTTP_STREAMING:
+                return "http-streaming";
             default:
                 return "";
         }
@@ -452,11 +960,19 @@ public class BayeuxConnection {
                 return "406:" + msg + ":Repeat subscribe";
             case CONN_LIMIT_EXCEEDED:
                 return "407::Exceed connections limit "+msg;
+            case QUEUE_OVERFLOW:
+                return "408:" + msg + ":Message queue overflow";
+            case OVERLOADED:
+                return "409:" + msg + ":Server overloaded";
             default:
                 return "400::Unknown Error";
         }
     }
 
+    public BayeuxRouter getRouter() {
+        return router;
+    }
+
     public String getClientId() {
         return clientId;
     }
@@ -513,15 +1029,57 @@ public class BayeuxConnection {
         this.jsonp = jsonp;
     }
 
-    public LinkedList<BayeuxMessage> getDownstreamQueue() {
+    public Queue<BayeuxMessage> getDownstreamQueue() {
         return downstreamQueue;
     }
 
-    public LinkedList<String> getSubscriptions() {
+    /**
+     * Returns number of messages waiting in downstream queue, which shows
+     * whether the client is backing up.
+     *
+     * @return
+     */
+    public int getDownstreamQueueSize() {
+        return downstreamQueueSize.get();
+    }
+
+    public int getDownstreamCapacity() {
+        return downstreamCapacity;
+    }
+
+    public void setDownstreamCapacity(int downstreamCapacity) {
+        this.downstreamCapacity = downstreamCapacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getBatchDelay() {
+        return batchDelay;
+    }
+
+    public void setBatchDelay(long batchDelay) {
+        this.batchDelay = batchDelay;
+    }
+
+    public OVERFLOW getOverflow() {
+        return overflow;
+    }
+
+    public void setOverflow(OVERFLOW overflow) {
+        this.overflow = overflow;
+    }
+
+    public List<String> getSubscriptions() {
         return subscriptions;
     }
 
-    public LinkedList<BayeuxMessage> getUpstreamQueue() {
+    public Queue<BayeuxMessage> getUpstreamQueue() {
         return upstreamQueue;
     }
 
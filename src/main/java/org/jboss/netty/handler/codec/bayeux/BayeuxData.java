@@ -44,6 +44,11 @@ public class BayeuxData implements BayeuxInterface {
         return JSONParser.toJSON(map);
     }
 
+    @Override
+    public void writeTo(JSONWriter writer) {
+        writer.value(map);
+    }
+
     @Override
     public boolean isValid() {
         return true;
@@ -19,6 +19,7 @@ import java.net.URLDecoder;
 import java.util.List;
 import java.util.Map;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipelineCoverage;
@@ -32,8 +33,9 @@ import org.jboss.netty.logging.InternalLogger;
 import org.jboss.netty.logging.InternalLoggerFactory;
 
 /**
- * BayeuxDecoder should be used with HTTPDecoder, because it only suppots Bayeux
- * protocol transporting on HTTP now. When browser request with Bayeux messages,
+ * BayeuxDecoder should be used with HTTPDecoder, because Bayeux protocol is
+ * transported on HTTP, or on WebSocket frames once WebSocketUpgradeHandler
+ * upgrades the connection. When browser request with Bayeux messages,
  * BayuexDecoder only decode and validate them from content of HTTP request.
  * Then BayeuxDecoder create or map this request to a BayeuxConnection instance
  * and put the valid Bayeux messages to it. At last, BayeuxDecoder throw the
@@ -47,9 +49,37 @@ public class BayeuxDecoder extends OneToOneDecoder {
 
     private static final InternalLogger logger =
             InternalLoggerFactory.getInstance(BayeuxDecoder.class.getName());
+    private final BayeuxRouter router;
+
+    /**
+     * Create a decoder using the default router.
+     *
+     * @deprecated pass a router to BayeuxDecoder(BayeuxRouter) instead
+     */
+    @Deprecated
+    public BayeuxDecoder() {
+        this(BayeuxRouter.getInstance());
+    }
+
+    /**
+     * Create a decoder routing clients through the given router.
+     *
+     * @param router
+     */
+    public BayeuxDecoder(BayeuxRouter router) {
+        this.router = router;
+    }
 
     @Override
     protected Object decode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+        long start = System.nanoTime();
+        if (msg instanceof WebSocketFrame) {//Client's batch on an upgraded connection
+            ChannelBuffer content = ((WebSocketFrame) msg).getContent();
+            int bytes = content.readableBytes();
+            List<BayeuxMessage> bayeuxes = BayeuxMessageFactory.getInstance().create(content);
+            router.getMetrics().decoded(bytes, System.nanoTime() - start);
+            return route(channel, null, bayeuxes, null);
+        }
         if (!(msg instanceof HttpRequest)) {
             return msg;
         }
@@ -60,6 +90,8 @@ public class BayeuxDecoder extends OneToOneDecoder {
         StringBuilder json = new StringBuilder();
         StringBuilder jsonp = new StringBuilder();
         String paramString = null;
+        List<BayeuxMessage> bayeuxes = null;
+        int bytes = 0;
         if (HttpMethod.POST == method && HttpVersion.HTTP_1_1 == version && request.getContent().capacity() > 0) {//Callback polling connection type
             String charset = "utf-8";//Default unicode char encoding
             if (request.containsHeader(HttpHeaders.Names.CONTENT_TYPE)) {
@@ -68,9 +100,15 @@ public class BayeuxDecoder extends OneToOneDecoder {
                 charset = isUnicode(charset) ? charset : "utf-8";
             }
 
-            String httpContent = ((ChannelBuffer) request.getContent()).toString(charset);
-            logger.debug("HTTP POST: " + httpContent);
-            paramString = "?" + httpContent;
+            ChannelBuffer content = request.getContent();
+            if ("utf-8".equalsIgnoreCase(charset) && isJSON(content)) {//JSON body, parse its bytes directly
+                bytes = content.readableBytes();
+                bayeuxes = BayeuxMessageFactory.getInstance().create(content);
+            } else {
+                String httpContent = content.toString(charset);
+                logger.debug("HTTP POST: " + httpContent);
+                paramString = "?" + httpContent;
+            }
         } else if (HttpMethod.GET == method && request.getUri().length() > 0) {//Callback polling
             logger.debug("HTTP GET: " + request.getUri());
             paramString = request.getUri();
@@ -78,75 +116,103 @@ public class BayeuxDecoder extends OneToOneDecoder {
         } else {
             return msg;
         }
-        QueryStringDecoder queryStringDecoder = new QueryStringDecoder(paramString);
-        Map<String, List<String>> paramMaps = queryStringDecoder.getParameters();
-        if (paramMaps.isEmpty() && HttpMethod.POST == method && HttpVersion.HTTP_1_1 == version) {
-            json.append(paramString).deleteCharAt(0);
-        } else if (!paramMaps.isEmpty()) {
-            if (paramMaps.containsKey("message")) {
-                for (String param : paramMaps.get("message")) {
-                    json.append("&").append(param);
+        if (paramString != null) {
+            QueryStringDecoder queryStringDecoder = new QueryStringDecoder(paramString);
+            Map<String, List<String>> paramMaps = queryStringDecoder.getParameters();
+            if (paramMaps.isEmpty() && HttpMethod.POST == method && HttpVersion.HTTP_1_1 == version) {
+                json.append(paramString).deleteCharAt(0);
+            } else if (!paramMaps.isEmpty()) {
+                if (paramMaps.containsKey("message")) {
+                    for (String param : paramMaps.get("message")) {
+                        json.append("&").append(param);
+                    }
+                    json.deleteCharAt(0);
                 }
-                json.deleteCharAt(0);
-            }
-            if (paramMaps.containsKey("jsonp")) {
-                for (String param : paramMaps.get("jsonp")) {
-                	jsonp.append("&").append( param);
+                if (paramMaps.containsKey("jsonp")) {
+                    for (String param : paramMaps.get("jsonp")) {
+                        jsonp.append("&").append(param);
+                    }
+                    jsonp.deleteCharAt(0);
                 }
-                jsonp.deleteCharAt(0);
+            } else {
+                return msg;
             }
-        } else {
-            return msg;
+            logger.info("Request:" + json);
+            ChannelBuffer content = ChannelBuffers.copiedBuffer(json.toString(), "UTF-8");
+            bytes = content.readableBytes();
+            bayeuxes = BayeuxMessageFactory.getInstance().create(content);
         }
-        logger.info("Request:" + json);
-        Object jsonObject = new JSONParser().parse(json.toString());
-        if (jsonObject == null || !(jsonObject instanceof Object[]) || ((Object[]) jsonObject).length == 0) {
+        router.getMetrics().decoded(bytes, System.nanoTime() - start);
+        return route(channel, request, bayeuxes, jsonp.toString());
+    }
+
+    /**
+     * Map decoded messages to their client's connection, and put the valid
+     * requests to it.
+     *
+     * @param channel
+     * @param request HTTP request of messages, or null if they came in a
+     * WebSocket frame
+     * @param bayeuxes
+     * @param jsonp
+     * @return
+     */
+    private BayeuxConnection route(Channel channel, HttpRequest request, List<BayeuxMessage> bayeuxes, String jsonp) {
+        if (bayeuxes.isEmpty()) {
             return null;
         }
 
-        Object[] jsonObjectArray = (Object[]) jsonObject;
-        BayeuxMessageFactory factory = BayeuxMessageFactory.getInstance();
         BayeuxConnection connection = null;
-        for (Object o : jsonObjectArray) {
-            BayeuxMessage bayeux = factory.create((Map) o);
-            connection = BayeuxRouter.getInstance().getConnection(bayeux.clientId);
+        for (BayeuxMessage bayeux : bayeuxes) {
+            connection = router.getConnection(bayeux.clientId);
             if (connection == null) {//New client, when handshakeing or publishing withoud connect before
-                connection = new BayeuxConnection();
+                connection = new BayeuxConnection(router);
                 connection.setClientAddress(channel.getRemoteAddress());
                 connection.setServerAddress(channel.getLocalAddress());
-                connection.setRequestedUri(request.getUri());
-                String requestedHost = request.containsHeader(HttpHeaders.Names.HOST) ? request.getHeader(HttpHeaders.Names.HOST) : connection.getServerAddress().toString();
+                if (request != null) {
+                    connection.setRequestedUri(request.getUri());
+                }
+                String requestedHost = request != null && request.containsHeader(HttpHeaders.Names.HOST) ? request.getHeader(HttpHeaders.Names.HOST) : connection.getServerAddress().toString();
                 connection.setRequestedHost(requestedHost);
-            } else if (connection.getChannel() != channel) {//Client is polling. Replace the older HTTP connection with the new one.
-                ConnectResponse[] responses = new ConnectResponse[1];
-                responses[0] = new ConnectResponse(connection.getClientId(), true);
-                responses[0].setId(connection.getId());
-                responses[0].setTimestamp(BayeuxUtil.getCurrentTime());
-                connection.send(JSONParser.toJSON(responses));
+            } else if (connection.getChannel() != channel) {//Client is polling. Answer the held connect on the older HTTP connection, then replace it with the new one.
+                connection.resume();
+            }
+            if (request == null) {
+                connection.acceptWebSocket(channel);
+            } else {
+                connection.accept(channel, request.isKeepAlive(), BayeuxEncoding.negotiate(request.getHeader(HttpHeaders.Names.ACCEPT_ENCODING)));
             }
-            connection.setChannel(channel);
             connection.setId(bayeux.id);
-            if (jsonp.length() > 0) {
-                connection.setJsonp(jsonp.toString());
+            if (jsonp != null && jsonp.length() > 0) {
+                connection.setJsonp(jsonp);
             }
-            if (HandshakeRequest.isValid(bayeux)) {
-                connection.putToUpstream(new HandshakeRequest(bayeux));
-                BayeuxRouter.getInstance().addConnection(connection);
-            } else if (ConnectRequest.isValid(bayeux)) {
-                connection.putToUpstream(new ConnectRequest(bayeux));
-            } else if (DisconnectRequest.isValid(bayeux)) {
-                connection.putToUpstream(new DisconnectRequest(bayeux));
-            } else if (SubscribeRequest.isValid(bayeux)) {
-                connection.putToUpstream(new SubscribeRequest(bayeux));
-            } else if (UnsubscribeRequest.isValid(bayeux)) {
-                connection.putToUpstream(new UnsubscribeRequest(bayeux));
-            } else if (PublishRequest.isValid(bayeux)) {
-                connection.putToUpstream(new PublishRequest(bayeux));
+            if (bayeux instanceof HandshakeRequest) {
+                connection.putToUpstream(bayeux);
+                router.addConnection(connection);
+            } else if (bayeux.getClass() != BayeuxMessage.class) {//Other valid requests
+                connection.putToUpstream(bayeux);
             }
         }
         return connection;
     }
 
+    /**
+     * Determine whether content is a JSON body, rather than a form of
+     * parameters, by its first non-white byte.
+     *
+     * @param content
+     * @return
+     */
+    private boolean isJSON(ChannelBuffer content) {
+        for (int i = content.readerIndex(); i < content.writerIndex(); i++) {
+            byte b = content.getByte(i);
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return b == '[' || b == '{' || b == '/';
+            }
+        }
+        return false;
+    }
+
     private boolean isUnicode(String charset) {
         String unicodes[] = {"utf-8", "utf-16", "utf-16le", "utf-16be", "utf-32", "utf-32le", "utf-32be"};
         for (String unicode : unicodes) {
@@ -156,4 +222,8 @@ public class BayeuxDecoder extends OneToOneDecoder {
         }
         return false;
     }
+
+    public BayeuxRouter getRouter() {
+        return router;
+    }
 }
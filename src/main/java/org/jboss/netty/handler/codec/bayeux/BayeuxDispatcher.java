@@ -0,0 +1,167 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.jboss.netty.logging.InternalLogger;
+import org.jboss.netty.logging.InternalLoggerFactory;
+import org.jboss.netty.util.ExternalResourceReleasable;
+
+/**
+ * A dispatcher delivering published messages to subscribers on its own
+ * threads, so that I/O threads only decode and enqueue them. Set it to a
+ * router by BayeuxRouter.setDispatcher(), then router's publishing returns
+ * immediately, and the logging, matching, fan-out and forwarding to the
+ * cluster are done by a dispatching thread.
+ *
+ * Each thread has a bounded queue. Messages of a publisher always go to the
+ * same thread, so every subscriber receives them in the order they were
+ * published. Messages received from peers of the cluster are spread over the
+ * threads by their channels. If the queue is full, the message is
+ * rejected rather than waiting for it, so a slow thread never blocks I/O
+ * threads, and publishing fails.
+ *
+ * @author daijun
+ */
+public class BayeuxDispatcher implements ExternalResourceReleasable {
+
+    private static final InternalLogger logger =
+            InternalLoggerFactory.getInstance(BayeuxDispatcher.class.getName());
+    private final BayeuxRouter router;
+    private final Worker[] workers;
+
+    /**
+     * Create a dispatcher with one thread per available processor.
+     *
+     * @param router
+     */
+    public BayeuxDispatcher(BayeuxRouter router) {
+        this(router, Runtime.getRuntime().availableProcessors(), 1024);
+    }
+
+    /**
+     * Create a dispatcher with given number of threads, each of which has a
+     * queue of given capacity.
+     *
+     * @param router
+     * @param threads
+     * @param capacity
+     */
+    public BayeuxDispatcher(BayeuxRouter router, int threads, int capacity) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads: " + threads);
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        this.router = router;
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(capacity);
+            Thread thread = new Thread(workers[i], "Bayeux dispatcher #" + i);
+            thread.setDaemon(true);
+            workers[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Put a message to the queue of its publisher's thread, or of its
+     * channel's thread if it has no publisher. Return false if the queue is
+     * full.
+     *
+     * @param publisher
+     * @param deliver
+     * @param local whether it's published locally rather than received from a peer
+     * @return
+     */
+    public boolean dispatch(BayeuxConnection publisher, DeliverEvent deliver, boolean local) {
+        int hash = publisher == null ? deliver.getChannel().hashCode() : System.identityHashCode(publisher);
+        hash ^= (hash >>> 16);
+        Worker worker = workers[(hash & 0x7fffffff) % workers.length];
+        return worker.queue.offer(new Dispatch(publisher, deliver, local));
+    }
+
+    /**
+     * Returns number of messages waiting to be delivered.
+     *
+     * @return
+     */
+    public int countPending() {
+        int count = 0;
+        for (Worker worker : workers) {
+            count += worker.queue.size();
+        }
+        return count;
+    }
+
+    /**
+     * Stop all dispatching threads. Messages still in queues are dropped.
+     */
+    @Override
+    public void releaseExternalResources() {
+        for (Worker worker : workers) {
+            worker.running = false;
+            worker.thread.interrupt();
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final BlockingQueue<Dispatch> queue;
+        private volatile boolean running = true;
+        private Thread thread;
+
+        private Worker(int capacity) {
+            this.queue = new ArrayBlockingQueue<Dispatch>(capacity);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Dispatch dispatch;
+                try {
+                    dispatch = queue.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                try {
+                    router.route(dispatch.publisher, dispatch.deliver, dispatch.local);
+                } catch (Throwable t) {
+                    logger.warn("Failed to deliver to " + dispatch.deliver.getChannel(), t);
+                }
+            }
+        }
+    }
+
+    /**
+     * A queued message with its publisher, whose copy is left to be sent
+     * with the response of its publish request.
+     */
+    private static final class Dispatch {
+
+        private final BayeuxConnection publisher;
+        private final DeliverEvent deliver;
+        private final boolean local;
+
+        private Dispatch(BayeuxConnection publisher, DeliverEvent deliver, boolean local) {
+            this.publisher = publisher;
+            this.deliver = deliver;
+            this.local = local;
+        }
+    }
+}
@@ -16,6 +16,8 @@
 package org.jboss.netty.handler.codec.bayeux;
 
 import static org.jboss.netty.channel.Channels.*;
+
+import java.util.regex.Pattern;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
@@ -24,7 +26,9 @@ import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipelineCoverage;
 import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.codec.http.DefaultHttpChunk;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpChunk;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpResponse;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
@@ -37,13 +41,69 @@ import org.jboss.netty.logging.InternalLoggerFactory;
  * It first process every request in receiving queue, which still have not been
  * handled by higher layers.
  *
+ * An iframe stream calls a JavaScript function of the parent page with each
+ * batch of messages. The function is window.parent.bayeux by default; use
+ * BayeuxEncoder(BayeuxRouter, String) to name another one, which the client
+ * page must define before it loads the iframe.
+ *
  * @author daijun
  */
 @ChannelPipelineCoverage("one")
 public class BayeuxEncoder implements ChannelDownstreamHandler {
 
+    /**
+     * Default JavaScript function called by iframe streams.
+     */
+    public static final String DEFAULT_IFRAME_CALLBACK = "window.parent.bayeux";
+
+    private static final ChannelBuffer IFRAME_START = createIframeStart();
+    private static final Pattern CALLBACK =
+            Pattern.compile("[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)*");
+    private static final ChannelBuffer SCRIPT_END = ChannelBuffers.unmodifiableBuffer(
+            ChannelBuffers.copiedBuffer(");</script>\n", "UTF-8"));
+    private static final ChannelBuffer NEWLINE = ChannelBuffers.unmodifiableBuffer(
+            ChannelBuffers.copiedBuffer("\n", "UTF-8"));
     private static final InternalLogger logger =
             InternalLoggerFactory.getInstance(BayeuxEncoder.class.getName());
+    private final BayeuxRouter router;
+    private final ChannelBuffer scriptStart;
+
+    /**
+     * Create an encoder using the default router.
+     *
+     * @deprecated pass a router to BayeuxEncoder(BayeuxRouter) instead
+     */
+    @Deprecated
+    public BayeuxEncoder() {
+        this(BayeuxRouter.getInstance());
+    }
+
+    /**
+     * Create an encoder working with the given router, which should be the
+     * same one passed to BayeuxDecoder.
+     *
+     * @param router
+     */
+    public BayeuxEncoder(BayeuxRouter router) {
+        this(router, DEFAULT_IFRAME_CALLBACK);
+    }
+
+    /**
+     * Create an encoder working with the given router, whose iframe streams
+     * call the given function of the client page, such as
+     * "window.parent.myBayeux".
+     *
+     * @param router
+     * @param iframeCallback dot separated JavaScript identifiers
+     */
+    public BayeuxEncoder(BayeuxRouter router, String iframeCallback) {
+        if (iframeCallback == null || !CALLBACK.matcher(iframeCallback).matches()) {
+            throw new IllegalArgumentException("iframeCallback: " + iframeCallback);
+        }
+        this.router = router;
+        this.scriptStart = ChannelBuffers.unmodifiableBuffer(ChannelBuffers.copiedBuffer(
+                "<script type=\"text/javascript\">" + iframeCallback + "(", "UTF-8"));
+    }
 
     @Override
     public void handleDownstream(
@@ -85,20 +145,124 @@ public class BayeuxEncoder implements ChannelDownstreamHandler {
             }
             connection.flush();
             return null;
+        } else if (msg instanceof BayeuxResponse) {
+            BayeuxResponse response = (BayeuxResponse) msg;
+            ChannelBuffer buf = response.getContent();
+            if (logger.isDebugEnabled() && response.getEncoding() == BayeuxEncoding.IDENTITY) {
+                logger.debug("Response:" + buf.toString("UTF-8"));
+            }
+            if (response.getStreamType() != null) {
+                return createChunk(ctx, channel, response);
+            }
+            return createResponse(buf, response.isKeepAlive(), response.getEncoding());
         } else if (msg instanceof String) {
             String responseContent = (String) msg;
             logger.info("Response:" + responseContent);
             ChannelBuffer buf = ChannelBuffers.copiedBuffer(responseContent, "utf-8");
-
-            // Build response object.
-            HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-            response.setContent(buf);
-            response.setHeader(HttpHeaders.Names.CONTENT_TYPE, "text/json; charset=UTF-8");
-            response.setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(buf.readableBytes()));
-            return response;
+            return createResponse(buf, false, BayeuxEncoding.IDENTITY);
         } else {
             return msg;
         }
     }
 
+    /**
+     * Start of iframe document, padded to 1KB, since some browsers don't run
+     * scripts of a document until so many bytes are received.
+     */
+    private static ChannelBuffer createIframeStart() {
+        StringBuilder html = new StringBuilder("<html><head></head><body>\n<!--");
+        while (html.length() < 1021) {
+            html.append(' ');
+        }
+        html.append("-->\n");
+        return ChannelBuffers.unmodifiableBuffer(ChannelBuffers.copiedBuffer(html.toString(), "UTF-8"));
+    }
+
+    /**
+     * Build HTTP response object with JSON content.
+     *
+     * @param buf
+     * @param keepAlive
+     * @param encoding coding of compressed content
+     * @return
+     */
+    private HttpResponse createResponse(ChannelBuffer buf, boolean keepAlive, BayeuxEncoding encoding) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.setContent(buf);
+        response.setHeader(HttpHeaders.Names.CONTENT_TYPE, "text/json; charset=UTF-8");
+        response.setHeader(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(buf.readableBytes()));
+        response.setHeader(HttpHeaders.Names.CONNECTION, keepAlive ? HttpHeaders.Values.KEEP_ALIVE : HttpHeaders.Values.CLOSE);
+        if (encoding != BayeuxEncoding.IDENTITY) {
+            response.setHeader(HttpHeaders.Names.CONTENT_ENCODING, encoding.getName());
+        }
+        response.setHeader(HttpHeaders.Names.VARY, HttpHeaders.Names.ACCEPT_ENCODING);
+        return response;
+    }
+
+    /**
+     * Build a chunk of streaming HTTP response. The first chunk is preceded by
+     * the header of response, which is written at once.
+     *
+     * An iframe stream is a HTML document, each chunk of which is a script
+     * calling the iframe callback with the messages. A HTTP stream is
+     * newline delimited JSON, one batch of messages per line.
+     *
+     * @param ctx
+     * @param channel
+     * @param response
+     * @return
+     */
+    private HttpChunk createChunk(ChannelHandlerContext ctx, Channel channel, BayeuxResponse response) {
+        boolean isIframe = response.getStreamType() == BayeuxConnection.TYPE.IFRAME;
+        ChannelBuffer buf = isIframe
+                ? ChannelBuffers.wrappedBuffer(scriptStart.duplicate(), escapeScript(response.getContent()), SCRIPT_END.duplicate())
+                : ChannelBuffers.wrappedBuffer(response.getContent(), NEWLINE.duplicate());
+        if (response.isStart()) {
+            HttpResponse head = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            head.setHeader(HttpHeaders.Names.CONTENT_TYPE, isIframe ? "text/html; charset=UTF-8" : "application/x-ndjson; charset=UTF-8");
+            head.setHeader(HttpHeaders.Names.TRANSFER_ENCODING, HttpHeaders.Values.CHUNKED);
+            head.setHeader(HttpHeaders.Names.CACHE_CONTROL, HttpHeaders.Values.NO_CACHE);
+            write(ctx, future(channel), head);
+            if (isIframe) {
+                buf = ChannelBuffers.wrappedBuffer(IFRAME_START.duplicate(), buf);
+            }
+        }
+        return new DefaultHttpChunk(buf);
+    }
+
+    /**
+     * Escape "</" in JSON as "<\/", so a string in messages can't end the
+     * script. Content is returned as it is, unless it has any.
+     *
+     * @param content
+     * @return
+     */
+    private ChannelBuffer escapeScript(ChannelBuffer content) {
+        int start = content.readerIndex();
+        int end = content.writerIndex();
+        int found = -1;
+        for (int i = start; i < end - 1; i++) {
+            if (content.getByte(i) == '<' && content.getByte(i + 1) == '/') {
+                found = i;
+                break;
+            }
+        }
+        if (found < 0) {
+            return content;
+        }
+        ChannelBuffer escaped = ChannelBuffers.dynamicBuffer(content.readableBytes() + 16);
+        escaped.writeBytes(content, start, found - start);
+        for (int i = found; i < end; i++) {
+            byte b = content.getByte(i);
+            escaped.writeByte(b);
+            if (b == '<' && i + 1 < end && content.getByte(i + 1) == '/') {
+                escaped.writeByte((byte) '\\');
+            }
+        }
+        return escaped;
+    }
+
+    public BayeuxRouter getRouter() {
+        return router;
+    }
 }
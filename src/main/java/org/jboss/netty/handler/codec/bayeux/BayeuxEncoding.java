@@ -0,0 +1,255 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * Content coding of a Bayeux response, negotiated by Accept-Encoding header
+ * of the HTTP request.
+ *
+ * Both gzip and deflate wrap a raw deflate stream, which may be joined from
+ * segments compressed separately, if each of them is flushed to a byte
+ * boundary. So a deliver event is compressed once into such a segment, and
+ * compressed responses of all its subscribers share it.
+ *
+ * @author daijun
+ */
+public enum BayeuxEncoding {
+
+    IDENTITY("identity"),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final byte[] ZLIB_HEADER = {0x78, (byte) 0x9c};
+    private static final byte[] FINAL_BLOCK = {0x03, 0x00};// An empty last block of fixed Huffman codes
+    private static final int SYNC_FLUSH = 2;
+    private static final Method DEFLATE_FLUSH = getDeflateFlush();
+    private final String name;
+
+    private BayeuxEncoding(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns value of Content-Encoding header.
+     *
+     * @return
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Choose a coding accepted by client, preferring gzip to deflate, or
+     * IDENTITY if it accepts neither of them.
+     *
+     * @param acceptEncoding value of Accept-Encoding header, which may be null
+     * @return
+     */
+    public static BayeuxEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return IDENTITY;
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        boolean any = false;
+        boolean gzipListed = false;
+        boolean deflateListed = false;
+        for (String coding : acceptEncoding.split(",")) {
+            int semicolon = coding.indexOf(';');
+            String name = (semicolon < 0 ? coding : coding.substring(0, semicolon)).trim();
+            boolean accepted = semicolon < 0 || isAccepted(coding.substring(semicolon + 1));
+            if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+                gzip = accepted;
+                gzipListed = true;
+            } else if (name.equalsIgnoreCase("deflate")) {
+                deflate = accepted;
+                deflateListed = true;
+            } else if (name.equals("*")) {
+                any = accepted;
+            }
+        }
+        if (gzip || (any && !gzipListed)) {
+            return GZIP;
+        }
+        if (deflate || (any && !deflateListed)) {
+            return DEFLATE;
+        }
+        return IDENTITY;
+    }
+
+    /**
+     * Returns false if parameters of a coding give it a quality of 0.
+     */
+    private static boolean isAccepted(String params) {
+        for (String param : params.split(";")) {
+            int equals = param.indexOf('=');
+            if (equals > 0 && param.substring(0, equals).trim().equalsIgnoreCase("q")) {
+                try {
+                    return Double.parseDouble(param.substring(equals + 1).trim()) > 0;
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a new buffer of content in this coding. Content of IDENTITY is
+     * returned as it is.
+     *
+     * @param content
+     * @return
+     */
+    public ChannelBuffer encode(ChannelBuffer content) {
+        if (this == IDENTITY) {
+            return content;
+        }
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(content.readableBytes() / 4 + 64);
+        try {
+            OutputStream out = new ChannelBufferOutputStream(buffer);
+            out = this == GZIP ? new GZIPOutputStream(out) : new DeflaterOutputStream(out);
+            content.getBytes(content.readerIndex(), out, content.readableBytes());
+            out.close();
+        } catch (IOException ex) {//Never thrown by a channel buffer
+            throw new IllegalStateException(ex);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a new buffer of content in this coding, joined from its parts,
+     * each of which is given with its deflated segment, or null to deflate it
+     * here.
+     *
+     * @param parts
+     * @param segments segments returned by deflateSegment() of the parts
+     * @return
+     */
+    public ChannelBuffer encode(List<ChannelBuffer> parts, List<ChannelBuffer> segments) {
+        if (this == IDENTITY || !isSegmentSupported()) {
+            return encode(ChannelBuffers.wrappedBuffer(parts.toArray(new ChannelBuffer[parts.size()])));
+        }
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(256);
+        Checksum checksum = this == GZIP ? new CRC32() : new Adler32();
+        buffer.writeBytes(this == GZIP ? GZIP_HEADER : ZLIB_HEADER);
+        long size = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            byte[] bytes = toBytes(parts.get(i));
+            checksum.update(bytes, 0, bytes.length);
+            size += bytes.length;
+            ChannelBuffer segment = segments.get(i);
+            if (segment == null) {
+                segment = deflateSegment(bytes);
+            }
+            buffer.writeBytes(segment, segment.readerIndex(), segment.readableBytes());
+        }
+        buffer.writeBytes(FINAL_BLOCK);
+        long value = checksum.getValue();
+        if (this == GZIP) {
+            writeIntLE(buffer, (int) value);
+            writeIntLE(buffer, (int) size);
+        } else {
+            buffer.writeInt((int) value);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns whether deflater can be flushed for segments, that's since
+     * Java 7.
+     *
+     * @return
+     */
+    public static boolean isSegmentSupported() {
+        return DEFLATE_FLUSH != null;
+    }
+
+    /**
+     * Returns content as a raw deflate segment, which is flushed to a byte
+     * boundary and isn't the last one, or null if it isn't supported.
+     *
+     * @param content
+     * @return
+     */
+    public static ChannelBuffer deflateSegment(ChannelBuffer content) {
+        if (!isSegmentSupported()) {
+            return null;
+        }
+        return deflateSegment(toBytes(content));
+    }
+
+    private static ChannelBuffer deflateSegment(byte[] bytes) {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(bytes.length / 2 + 16);
+        if (bytes.length == 0) {
+            return buffer;
+        }
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(bytes);
+            byte[] out = new byte[Math.max(64, bytes.length / 2)];
+            int length;
+            do {
+                length = (Integer) DEFLATE_FLUSH.invoke(deflater, out, 0, out.length, SYNC_FLUSH);
+                buffer.writeBytes(out, 0, length);
+            } while (length == out.length);
+        } catch (Exception ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            deflater.end();
+        }
+        return buffer;
+    }
+
+    /**
+     * Deflater.deflate(byte[], int, int, int) is only in Java 7 and later,
+     * so it's looked up when running on them.
+     */
+    private static Method getDeflateFlush() {
+        try {
+            return Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    private static byte[] toBytes(ChannelBuffer buffer) {
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), bytes);
+        return bytes;
+    }
+
+    private static void writeIntLE(ChannelBuffer buffer, int value) {
+        buffer.writeByte((byte) value);
+        buffer.writeByte((byte) (value >>> 8));
+        buffer.writeByte((byte) (value >>> 16));
+        buffer.writeByte((byte) (value >>> 24));
+    }
+}
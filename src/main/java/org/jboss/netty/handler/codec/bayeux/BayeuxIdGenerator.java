@@ -0,0 +1,50 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+/**
+ * Generator of client ids. Set it to a router by
+ * BayeuxRouter.setIdGenerator(), to change how ids look or where their
+ * randomness comes from.
+ *
+ * Each id carries a tag, like the shard of a sharded router, which is
+ * recovered from the id by tagOf(), so that a client can be routed to its
+ * shard without looking up any map.
+ *
+ * Generators are called by all I/O threads, and should be thread safe.
+ *
+ * @author daijun
+ */
+public interface BayeuxIdGenerator {
+
+    /**
+     * Returns a new unguessable id carrying the tag, which is between 0 and
+     * 65535.
+     *
+     * @param tag
+     * @return
+     */
+    String generateId(int tag);
+
+    /**
+     * Returns the tag of an id generated by this generator, or -1 if it's
+     * not one of them.
+     *
+     * @param id
+     * @return
+     */
+    int tagOf(String id);
+}
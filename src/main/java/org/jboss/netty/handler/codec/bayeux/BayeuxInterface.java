@@ -29,6 +29,13 @@ public interface BayeuxInterface {
      */
     public String toJSON();
 
+    /**
+     * Write a Bayeux message as JSON by a streaming writer.
+     *
+     * @param writer
+     */
+    public void writeTo(JSONWriter writer);
+
     /**
      * Validate Bayeux messages's properties.
      * 
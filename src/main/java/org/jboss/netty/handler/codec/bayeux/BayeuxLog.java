@@ -0,0 +1,330 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.logging.InternalLogger;
+import org.jboss.netty.logging.InternalLoggerFactory;
+import org.jboss.netty.util.ExternalResourceReleasable;
+
+/**
+ * An append-only log of published messages, so that clients may resume from
+ * the last message they received after reconnecting. Set it to a router by
+ * BayeuxRouter.setLog(), then every published message gets an increasing id
+ * in ext "logId", and a subscribe request with ext "resume" gets all the
+ * logged messages of its subscription after that id.
+ *
+ * Each channel has its own directory of segment files, which are memory
+ * mapped, so logged messages live in the page cache instead of the heap.
+ * A segment is named by the id of its first message, and holds entries of
+ * a length, an id and the encoded message. When a channel has more than max
+ * segments, the oldest one is deleted. Segments are found again when a log
+ * is opened on the same directory, and ids continue after the last one.
+ *
+ * Appending to a channel is serialized, reading never locks. Segments are
+ * only forced to disk when the log is released, so messages of the last
+ * seconds may be lost if the machine crashes.
+ *
+ * @author daijun
+ */
+public class BayeuxLog implements ExternalResourceReleasable {
+
+    private static final InternalLogger logger =
+            InternalLoggerFactory.getInstance(BayeuxLog.class.getName());
+    private static final int HEADER_LENGTH = 12;//Length of an entry's length and id
+    private static final String SUFFIX = ".log";
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final AtomicLong lastId = new AtomicLong();
+    private final ConcurrentMap<String, ChannelLog> logs = new ConcurrentHashMap<String, ChannelLog>();
+    private final ChannelTrie<ChannelLog> logIndex = new ChannelTrie<ChannelLog>();
+
+    /**
+     * Open a log in a directory, with segments of 1MB and at most 16 segments
+     * per channel.
+     *
+     * @param directory
+     * @throws IOException
+     */
+    public BayeuxLog(File directory) throws IOException {
+        this(directory, 1048576, 16);
+    }
+
+    /**
+     * Open a log in a directory, with given bytes of a segment and number of
+     * segments kept per channel.
+     *
+     * @param directory
+     * @param segmentSize
+     * @param maxSegments
+     * @throws IOException
+     */
+    public BayeuxLog(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= HEADER_LENGTH) {
+            throw new IllegalArgumentException("segmentSize: " + segmentSize);
+        }
+        if (maxSegments <= 0) {
+            throw new IllegalArgumentException("maxSegments: " + maxSegments);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        File[] channelDirectories = directory.listFiles();
+        for (File channelDirectory : channelDirectories) {
+            if (channelDirectory.isDirectory()) {
+                open(URLDecoder.decode(channelDirectory.getName(), "UTF-8"), channelDirectory);
+            }
+        }
+    }
+
+    /**
+     * Returns id of the last logged message, or 0 if nothing is logged.
+     *
+     * @return
+     */
+    public long getLastId() {
+        return lastId.get();
+    }
+
+    /**
+     * Log a message with the next id, which is also put to its ext as
+     * "logId". Returns the id.
+     *
+     * @param deliver
+     * @return
+     * @throws IOException
+     */
+    public long append(DeliverEvent deliver) throws IOException {
+        ChannelLog log = logOf(deliver.getChannel());
+        synchronized (log) {
+            long id = lastId.incrementAndGet();
+            BayeuxExt ext = new BayeuxExt();
+            if (deliver.getExt() != null) {
+                Map<?, ?> map = deliver.getExt().map;
+                ext = new BayeuxExt(new HashMap<Object, Object>(map));
+            }
+            ext.put("logId", id);
+            deliver.setExt(ext);
+            log.append(id, deliver.getEncoded());
+            return id;
+        }
+    }
+
+    /**
+     * Returns logged messages of channels matching a subscription after the
+     * given id, in the order of their ids. Messages which were deleted with
+     * their segments are skipped.
+     *
+     * @param subscription
+     * @param fromId
+     * @return
+     */
+    public List<DeliverEvent> replay(String subscription, long fromId) {
+        TreeMap<Long, ChannelBuffer> entries = new TreeMap<Long, ChannelBuffer>();
+        for (ChannelLog log : logIndex.match(subscription)) {
+            log.collect(fromId, entries);
+        }
+        List<DeliverEvent> replayed = new ArrayList<DeliverEvent>(entries.size());
+        for (ChannelBuffer entry : entries.values()) {
+            replayed.addAll(DeliverEvent.decode(entry));
+        }
+        return replayed;
+    }
+
+    /**
+     * Force all segments to disk.
+     */
+    @Override
+    public void releaseExternalResources() {
+        for (ChannelLog log : logs.values()) {
+            for (Segment segment : log.segments) {
+                segment.buffer.force();
+            }
+        }
+    }
+
+    private ChannelLog logOf(String channel) throws IOException {
+        ChannelLog log = logs.get(channel);
+        if (log == null) {
+            synchronized (logs) {
+                log = logs.get(channel);
+                if (log == null) {
+                    File channelDirectory = new File(directory, URLEncoder.encode(channel, "UTF-8"));
+                    if (!channelDirectory.isDirectory() && !channelDirectory.mkdirs()) {
+                        throw new IOException("Failed to create " + channelDirectory);
+                    }
+                    log = open(channel, channelDirectory);
+                }
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Open a channel's log with segments found in its directory.
+     *
+     * @param channel
+     * @param channelDirectory
+     * @return
+     * @throws IOException
+     */
+    private ChannelLog open(String channel, File channelDirectory) throws IOException {
+        ChannelLog log = new ChannelLog(channelDirectory);
+        File[] files = channelDirectory.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                Segment segment = new Segment(file, (int) file.length());
+                log.segments.add(segment);
+                if (segment.lastId > lastId.get()) {
+                    lastId.set(segment.lastId);
+                }
+            }
+        }
+        logs.put(channel, log);
+        logIndex.put(channel, Collections.singletonList(log));
+        return log;
+    }
+
+    /**
+     * Segments of a channel, the last of which is being appended.
+     */
+    private class ChannelLog {
+
+        private final File directory;
+        private final List<Segment> segments = new CopyOnWriteArrayList<Segment>();
+
+        private ChannelLog(File directory) {
+            this.directory = directory;
+        }
+
+        private void append(long id, ChannelBuffer message) throws IOException {
+            int length = message.readableBytes();
+            Segment current = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (current == null || current.remaining() < HEADER_LENGTH + length) {
+                String name = String.format("%020d", id) + SUFFIX;
+                current = new Segment(new File(directory, name), Math.max(segmentSize, HEADER_LENGTH + length));
+                segments.add(current);
+                while (segments.size() > maxSegments) {
+                    Segment oldest = segments.remove(0);
+                    if (!oldest.file.delete()) {
+                        logger.warn("Failed to delete " + oldest.file);
+                    }
+                }
+            }
+            current.append(id, message);
+        }
+
+        private void collect(long fromId, Map<Long, ChannelBuffer> entries) {
+            for (Segment segment : segments) {
+                if (segment.lastId > fromId) {
+                    segment.collect(fromId, entries);
+                }
+            }
+        }
+    }
+
+    /**
+     * A memory mapped file of entries. The file is closed once it's mapped,
+     * the mapping stays valid until the segment is collected.
+     */
+    private static class Segment {
+
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private volatile int position;//End of the written entries
+        private volatile long lastId;
+
+        private Segment(File file, int size) throws IOException {
+            this.file = file;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, raf.length()));
+            } finally {
+                raf.close();
+            }
+            int end = 0;
+            long last = 0;
+            while (end + HEADER_LENGTH <= buffer.capacity()) {
+                int length = buffer.getInt(end);
+                if (length <= 0 || end + HEADER_LENGTH + length > buffer.capacity()) {
+                    break;
+                }
+                last = buffer.getLong(end + 4);
+                end += HEADER_LENGTH + length;
+            }
+            this.position = end;
+            this.lastId = last;
+        }
+
+        private int remaining() {
+            return buffer.capacity() - position;
+        }
+
+        private void append(long id, ChannelBuffer message) {
+            int start = position;
+            int length = message.readableBytes();
+            ByteBuffer target = buffer.duplicate();
+            target.limit(start + HEADER_LENGTH + length).position(start + HEADER_LENGTH);
+            message.getBytes(message.readerIndex(), target);
+            buffer.putLong(start + 4, id);
+            buffer.putInt(start, length);
+            lastId = id;
+            position = start + HEADER_LENGTH + length;
+        }
+
+        private void collect(long fromId, Map<Long, ChannelBuffer> entries) {
+            ByteBuffer source = buffer.duplicate();
+            int end = position;
+            int start = 0;
+            while (start < end) {
+                int length = source.getInt(start);
+                long id = source.getLong(start + 4);
+                if (id > fromId) {
+                    source.limit(start + HEADER_LENGTH + length).position(start + HEADER_LENGTH);
+                    entries.put(id, ChannelBuffers.wrappedBuffer(source.slice()));
+                    source.clear();
+                }
+                start += HEADER_LENGTH + length;
+            }
+        }
+    }
+}
@@ -15,8 +15,6 @@
  */
 package org.jboss.netty.handler.codec.bayeux;
 
-import java.util.ArrayList;
-import java.util.List;
 import static org.jboss.netty.handler.codec.bayeux.BayeuxUtil.*;
 
 /**
@@ -65,68 +63,70 @@ public class BayeuxMessage implements BayeuxInterface {
 
 	@Override
 	public String toJSON() {
-		StringBuilder json = new StringBuilder();
-		json.append("{");
+		JSONWriter writer = new JSONWriter();
+		writeTo(writer);
+		return writer.toString();
+	}
+
+	@Override
+	public void writeTo(JSONWriter writer) {
+		writer.beginObject();
 		if (this.channel != null && this.channel.length() != 0) {
-			json.append("\"channel\":").append(JSONParser.toJSON(this.channel));
+			writer.name("channel").value(this.channel);
 		}
 		if (supportedConnectionTypes != null
 				&& supportedConnectionTypes.length != 0) {
-			List<String> supportedConnectionTypeList = new ArrayList<String>();
+			writer.name("supportedConnectionTypes").beginArray();
 			for (int i = 0; i < supportedConnectionTypes.length; i++) {
-				supportedConnectionTypeList.add(BayeuxConnection
+				writer.value(BayeuxConnection
 						.getValueOfType(supportedConnectionTypes[i]));
 			}
-			json.append(",\"supportedConnectionTypes\":").append(
-					JSONParser.toJSON(supportedConnectionTypeList));
+			writer.endArray();
 		}
 		if (clientId != null && clientId.length() != 0) {
-			json.append(",\"clientId\":").append(JSONParser.toJSON(clientId));
+			writer.name("clientId").value(clientId);
 		}
 		if (connectionId != null && connectionId.length() != 0) {
-			json.append(",\"connectionId\":").append(
-					JSONParser.toJSON(connectionId));
+			writer.name("connectionId").value(connectionId);
 		}
 		if (minimumVersion != null && minimumVersion.length() != 0) {
-			json.append(",\"minimumVersion\":").append(
-					JSONParser.toJSON(minimumVersion));
+			writer.name("minimumVersion").value(minimumVersion);
 		}
 		if (successful != null) {
-			json.append(",\"successful\":").append(
-					JSONParser.toJSON(successful));
+			writer.name("successful").value(successful.booleanValue());
 		}
 		if (version != null && version.length() != 0) {
-			json.append(",\"version\":").append(JSONParser.toJSON(version));
+			writer.name("version").value(version);
 		}
 		if (subscription != null && subscription.length() != 0) {
-			json.append(",\"subscription\":").append(
-					JSONParser.toJSON(subscription));
+			writer.name("subscription").value(subscription);
 		}
 		if (error != null && error.length() != 0) {
-			json.append(",\"error\":").append(JSONParser.toJSON(error));
+			writer.name("error").value(error);
 		}
 		if (connectionType != null) {
-			json.append(",\"connectionType\":").append(
-					JSONParser.toJSON(BayeuxConnection
-							.getValueOfType(connectionType)));
+			writer.name("connectionType").value(
+					BayeuxConnection.getValueOfType(connectionType));
 		}
 		if (id != null && id.length() != 0) {
-			json.append(",\"id\":").append(JSONParser.toJSON(id));
+			writer.name("id").value(id);
 		}
 		if (timestamp != null && timestamp.length() != 0) {
-			json.append(",\"timestamp\":").append(JSONParser.toJSON(timestamp));
+			writer.name("timestamp").value(timestamp);
 		}
 		if (ext != null) {
-			json.append(",\"ext\":" + ext.toJSON());
+			writer.name("ext");
+			ext.writeTo(writer);
 		}
 		if (advice != null) {
-			json.append(",\"advice\":" + advice.toJSON());
+			writer.name("advice");
+			advice.writeTo(writer);
 		}
 		if (data != null) {
-			json.append(",\"data\":" + data.toJSON());
+			writer.name("data");
+			data.writeTo(writer);
 		}
-		json.append("}");
-		return json.toString();
+		writer.endObject();
 	}
 
 	@Override
@@ -15,17 +15,28 @@
  */
 package org.jboss.netty.handler.codec.bayeux;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import org.jboss.netty.buffer.ChannelBuffer;
 
 /**
  * A singleton BayeuxMessage factory, which creates BayeuxMessage instances from
  * Map.
+ *
+ * It also binds JSON bytes to Bayeux requests directly, without building
+ * Maps, only data, ext and advice are read to Maps. Each request is bound
+ * into its concrete type, which is picked once its channel is read.
  * 
  * @author daijun
  */
 public class BayeuxMessageFactory {
 
     private static final BayeuxMessageFactory instance = new BayeuxMessageFactory();
+    private static final String[] FIELDS = {"channel", "supportedConnectionTypes",
+        "clientId", "connectionId", "minimumVersion", "successful", "version",
+        "subscription", "error", "connectionType", "id", "timestamp", "data",
+        "ext", "advice"};
 
     private BayeuxMessageFactory() {
     }
@@ -77,4 +88,252 @@ public class BayeuxMessageFactory {
         bayeux.data = data;
         return bayeux;
     }
+
+    /**
+     * Read Bayeux requests from a JSON array, or a single JSON object, in
+     * UTF-8 bytes. Each valid request is created as its concrete type, like
+     * HandshakeRequest, and others are created as BayeuxMessage.
+     *
+     * @param buffer
+     * @return
+     * @throws java.lang.IllegalStateException
+     */
+    public List<BayeuxMessage> create(ChannelBuffer buffer) throws IllegalStateException {
+        List<BayeuxMessage> list = new ArrayList<BayeuxMessage>();
+        JSONReader reader = new JSONReader(buffer);
+        BayeuxMessage scratch = new BayeuxMessage();//Reused for fields of each message before its channel
+        switch (reader.peek()) {
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (reader.peek() == JSONReader.TOKEN.BEGIN_OBJECT) {
+                        list.add(bind(reader, scratch));
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+                break;
+            case BEGIN_OBJECT:
+                list.add(bind(reader, scratch));
+                break;
+            case END:
+                break;
+            default:
+                throw new IllegalStateException("Expected JSON object or array but was " + reader.peek());
+        }
+        return list;
+    }
+
+    /**
+     * Create a Bayeux request of concrete type by its channel, if it's valid.
+     *
+     * @param bayeux
+     * @return
+     */
+    public BayeuxMessage createRequest(BayeuxMessage bayeux) {
+        String channel = bayeux.channel;
+        if (channel == null) {
+            return new BayeuxMessage(bayeux);
+        } else if (channel.equals("/meta/connect")) {
+            return ConnectRequest.isValid(bayeux) ? new ConnectRequest(bayeux) : new BayeuxMessage(bayeux);
+        } else if (channel.equals("/meta/handshake")) {
+            return HandshakeRequest.isValid(bayeux) ? new HandshakeRequest(bayeux) : new BayeuxMessage(bayeux);
+        } else if (channel.equals("/meta/subscribe")) {
+            return SubscribeRequest.isValid(bayeux) ? new SubscribeRequest(bayeux) : new BayeuxMessage(bayeux);
+        } else if (channel.equals("/meta/unsubscribe")) {
+            return UnsubscribeRequest.isValid(bayeux) ? new UnsubscribeRequest(bayeux) : new BayeuxMessage(bayeux);
+        } else if (channel.equals("/meta/disconnect")) {
+            return DisconnectRequest.isValid(bayeux) ? new DisconnectRequest(bayeux) : new BayeuxMessage(bayeux);
+        } else if (PublishRequest.isValid(bayeux)) {
+            return new PublishRequest(bayeux);
+        }
+        return new BayeuxMessage(bayeux);
+    }
+
+    /**
+     * Bind next JSON object to a request of concrete type. Fields before the
+     * channel, which clients rarely send, are bound to the scratch message,
+     * then moved to the request of the channel, and the rest are bound to
+     * the request. Invalid requests are returned as BayeuxMessage, like
+     * createRequest() does.
+     *
+     * @param reader
+     * @param scratch
+     * @return
+     */
+    private BayeuxMessage bind(JSONReader reader, BayeuxMessage scratch) {
+        scratch.channel = null;
+        scratch.supportedConnectionTypes = null;
+        scratch.clientId = null;
+        scratch.connectionId = null;
+        scratch.minimumVersion = null;
+        scratch.successful = null;
+        scratch.version = null;
+        scratch.subscription = null;
+        scratch.error = null;
+        scratch.connectionType = null;
+        scratch.id = null;
+        scratch.timestamp = null;
+        scratch.data = null;
+        scratch.ext = null;
+        scratch.advice = null;
+        BayeuxMessage bayeux = scratch;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName(FIELDS)) {
+                case 0:
+                    String channel = readText(reader);
+                    BayeuxMessage request = newRequest(channel);
+                    move(bayeux, request);
+                    request.channel = channel;
+                    bayeux = request;
+                    break;
+                case 1:
+                    bayeux.supportedConnectionTypes = readTypes(reader);
+                    break;
+                case 2:
+                    bayeux.clientId = readText(reader);
+                    break;
+                case 3:
+                    bayeux.connectionId = readText(reader);
+                    break;
+                case 4:
+                    bayeux.minimumVersion = readText(reader);
+                    break;
+                case 5:
+                    if (reader.peek() == JSONReader.TOKEN.BOOLEAN) {
+                        bayeux.successful = reader.nextBoolean();
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                case 6:
+                    bayeux.version = readText(reader);
+                    break;
+                case 7:
+                    bayeux.subscription = readText(reader);
+                    break;
+                case 8:
+                    bayeux.error = readText(reader);
+                    break;
+                case 9:
+                    bayeux.connectionType = BayeuxConnection.getTypeOfValue(readText(reader));
+                    break;
+                case 10:
+                    bayeux.id = readText(reader);
+                    break;
+                case 11:
+                    bayeux.timestamp = readText(reader);
+                    break;
+                case 12:
+                    Map<?, ?> data = readMap(reader);
+                    bayeux.data = data == null ? null : new BayeuxData(data);
+                    break;
+                case 13:
+                    Map<?, ?> ext = readMap(reader);
+                    bayeux.ext = ext == null ? null : new BayeuxExt(ext);
+                    break;
+                case 14:
+                    Map<?, ?> advice = readMap(reader);
+                    bayeux.advice = advice == null ? null : new BayeuxAdvice(advice);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (bayeux != scratch && bayeux.isValid()) {
+            return bayeux;
+        }
+        return new BayeuxMessage(bayeux);
+    }
+
+    /**
+     * Create an empty request of concrete type by its channel.
+     *
+     * @param channel
+     * @return
+     */
+    private BayeuxMessage newRequest(String channel) {
+        if (channel == null) {
+            return new BayeuxMessage();
+        } else if (channel.equals("/meta/connect")) {
+            return new ConnectRequest();
+        } else if (channel.equals("/meta/handshake")) {
+            return new HandshakeRequest();
+        } else if (channel.equals("/meta/subscribe")) {
+            return new SubscribeRequest();
+        } else if (channel.equals("/meta/unsubscribe")) {
+            return new UnsubscribeRequest();
+        } else if (channel.equals("/meta/disconnect")) {
+            return new DisconnectRequest();
+        }
+        return new PublishRequest();
+    }
+
+    /**
+     * Move all the bound fields of a message to another.
+     *
+     * @param from
+     * @param to
+     */
+    private void move(BayeuxMessage from, BayeuxMessage to) {
+        to.channel = from.channel;
+        to.supportedConnectionTypes = from.supportedConnectionTypes;
+        to.clientId = from.clientId;
+        to.connectionId = from.connectionId;
+        to.minimumVersion = from.minimumVersion;
+        to.successful = from.successful;
+        to.version = from.version;
+        to.subscription = from.subscription;
+        to.error = from.error;
+        to.connectionType = from.connectionType;
+        to.id = from.id;
+        to.timestamp = from.timestamp;
+        to.data = from.data;
+        to.ext = from.ext;
+        to.advice = from.advice;
+    }
+
+    /**
+     * Read a value as text, like toString() of its Java object.
+     *
+     * @param reader
+     * @return
+     */
+    private String readText(JSONReader reader) {
+        switch (reader.peek()) {
+            case STRING:
+                return reader.nextString();
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                Object value = reader.readValue();
+                return value == null ? null : value.toString();
+        }
+    }
+
+    private Map<?, ?> readMap(JSONReader reader) {
+        if (reader.peek() == JSONReader.TOKEN.BEGIN_OBJECT) {
+            return (Map<?, ?>) reader.readValue();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    private BayeuxConnection.TYPE[] readTypes(JSONReader reader) {
+        if (reader.peek() != JSONReader.TOKEN.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        List<BayeuxConnection.TYPE> types = new ArrayList<BayeuxConnection.TYPE>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            types.add(BayeuxConnection.getTypeOfValue(readText(reader)));
+        }
+        reader.endArray();
+        return types.isEmpty() ? null : types.toArray(new BayeuxConnection.TYPE[types.size()]);
+    }
 }
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of a router, its connections and codecs. Each router has its own
+ * metrics, got by BayeuxRouter.getMetrics().
+ *
+ * Counters and histograms are updated with atomic operations on the hot
+ * paths. Gauges of connections, subscriptions and downstream queues are
+ * computed when they're read, by iterating router's concurrent maps without
+ * locking. snapshot() returns all of them in a flat map, and register()
+ * exposes them by JMX.
+ *
+ * @author daijun
+ */
+public class BayeuxMetrics implements BayeuxMetricsMXBean {
+
+    private static final int RATE_SECONDS = 10;//Seconds to average publish rate over
+    private final BayeuxRouter router;
+    private final AtomicLong publishCount = new AtomicLong();
+    private final AtomicLong deliverCount = new AtomicLong();
+    private final AtomicLong dropCount = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLongArray publishSeconds = new AtomicLongArray(RATE_SECONDS + 1);
+    private final AtomicLongArray publishCounts = new AtomicLongArray(RATE_SECONDS + 1);
+    private final BayeuxHistogram fanOut = new BayeuxHistogram();
+    private final BayeuxHistogram decodeLatency = new BayeuxHistogram();
+    private final BayeuxHistogram encodeLatency = new BayeuxHistogram();
+
+    public BayeuxMetrics(BayeuxRouter router) {
+        this.router = router;
+    }
+
+    /**
+     * Count a published message.
+     */
+    public void published() {
+        publishCount.incrementAndGet();
+        long second = System.currentTimeMillis() / 1000;
+        int i = (int) (second % publishSeconds.length());
+        long stamp = publishSeconds.get(i);
+        if (stamp != second && publishSeconds.compareAndSet(i, stamp, second)) {
+            publishCounts.set(i, 0);
+        }
+        publishCounts.incrementAndGet(i);
+    }
+
+    /**
+     * Count a message delivered to given number of subscribers.
+     *
+     * @param subscribers
+     */
+    public void delivered(int subscribers) {
+        deliverCount.incrementAndGet();
+        fanOut.record(subscribers);
+    }
+
+    /**
+     * Count a delivery dropped by a full downstream queue.
+     */
+    public void dropped() {
+        dropCount.incrementAndGet();
+    }
+
+    /**
+     * Count JSON bytes of a request decoded in given nanoseconds.
+     *
+     * @param bytes
+     * @param nanos
+     */
+    public void decoded(int bytes, long nanos) {
+        bytesIn.addAndGet(bytes);
+        decodeLatency.record(nanos / 1000);
+    }
+
+    /**
+     * Count JSON bytes of a response encoded in given nanoseconds.
+     *
+     * @param bytes
+     * @param nanos
+     */
+    public void encoded(int bytes, long nanos) {
+        bytesOut.addAndGet(bytes);
+        encodeLatency.record(nanos / 1000);
+    }
+
+    public BayeuxHistogram getFanOut() {
+        return fanOut;
+    }
+
+    public BayeuxHistogram getDecodeLatency() {
+        return decodeLatency;
+    }
+
+    public BayeuxHistogram getEncodeLatency() {
+        return encodeLatency;
+    }
+
+    @Override
+    public int getConnectionCount() {
+        return router.countConnections();
+    }
+
+    @Override
+    public Map<String, Integer> getConnectionCountByState() {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (BayeuxConnection connection : router.getConnections().values()) {
+            BayeuxConnection.STATE state = connection.getState();
+            increment(counts, state == null ? "NONE" : state.name());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Integer> getConnectionCountByType() {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (BayeuxConnection connection : router.getConnections().values()) {
+            BayeuxConnection.TYPE type = connection.getConnectionType();
+            increment(counts, type == null ? "none" : BayeuxConnection.getValueOfType(type));
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Integer> getSubscriberCountByChannel() {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (Entry<String, List<BayeuxConnection>> entry : router.getSubscriptions().entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().size());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getDownstreamQueueDepth() {
+        long depth = 0;
+        for (BayeuxConnection connection : router.getConnections().values()) {
+            depth += connection.getDownstreamQueueSize();
+        }
+        return depth;
+    }
+
+    @Override
+    public int getMaxDownstreamQueueDepth() {
+        int depth = 0;
+        for (BayeuxConnection connection : router.getConnections().values()) {
+            depth = Math.max(depth, connection.getDownstreamQueueSize());
+        }
+        return depth;
+    }
+
+    @Override
+    public long getPublishCount() {
+        return publishCount.get();
+    }
+
+    /**
+     * Returns published messages per second in the last complete seconds.
+     *
+     * @return
+     */
+    @Override
+    public double getPublishRate() {
+        long second = System.currentTimeMillis() / 1000;
+        long count = 0;
+        for (int i = 0; i < publishSeconds.length(); i++) {
+            long stamp = publishSeconds.get(i);
+            if (stamp < second && stamp >= second - RATE_SECONDS) {
+                count += publishCounts.get(i);
+            }
+        }
+        return (double) count / RATE_SECONDS;
+    }
+
+    @Override
+    public long getDeliverCount() {
+        return deliverCount.get();
+    }
+
+    @Override
+    public long getDropCount() {
+        return dropCount.get();
+    }
+
+    @Override
+    public double getFanOutMean() {
+        return fanOut.getMean();
+    }
+
+    @Override
+    public long getFanOutP99() {
+        return fanOut.getPercentile(99);
+    }
+
+    @Override
+    public long getFanOutMax() {
+        return fanOut.getMax();
+    }
+
+    @Override
+    public long getDecodeLatencyP50() {
+        return decodeLatency.getPercentile(50);
+    }
+
+    @Override
+    public long getDecodeLatencyP99() {
+        return decodeLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getEncodeLatencyP50() {
+        return encodeLatency.getPercentile(50);
+    }
+
+    @Override
+    public long getEncodeLatencyP99() {
+        return encodeLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * Returns current values of all the metrics, keyed by dotted names like
+     * "connections.state.CONNECTED" and "subscribers./chat".
+     *
+     * @return
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("connections", getConnectionCount());
+        for (Entry<String, Integer> entry : getConnectionCountByState().entrySet()) {
+            snapshot.put("connections.state." + entry.getKey(), entry.getValue());
+        }
+        for (Entry<String, Integer> entry : getConnectionCountByType().entrySet()) {
+            snapshot.put("connections.type." + entry.getKey(), entry.getValue());
+        }
+        for (Entry<String, Integer> entry : getSubscriberCountByChannel().entrySet()) {
+            snapshot.put("subscribers." + entry.getKey(), entry.getValue());
+        }
+        snapshot.put("downstream.depth", getDownstreamQueueDepth());
+        snapshot.put("downstream.maxDepth", getMaxDownstreamQueueDepth());
+        snapshot.put("publish.count", getPublishCount());
+        snapshot.put("publish.rate", getPublishRate());
+        snapshot.put("deliver.count", getDeliverCount());
+        snapshot.put("deliver.dropped", getDropCount());
+        snapshot.put("fanOut.mean", getFanOutMean());
+        snapshot.put("fanOut.p99", getFanOutP99());
+        snapshot.put("fanOut.max", getFanOutMax());
+        snapshot.put("decode.p50", getDecodeLatencyP50());
+        snapshot.put("decode.p99", getDecodeLatencyP99());
+        snapshot.put("encode.p50", getEncodeLatencyP50());
+        snapshot.put("encode.p99", getEncodeLatencyP99());
+        snapshot.put("bytes.in", getBytesIn());
+        snapshot.put("bytes.out", getBytesOut());
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Register to the platform MBean server, under
+     * "org.jboss.netty.handler.codec.bayeux:type=BayeuxMetrics,name=" and
+     * the given name. Returns the object name to unregister with.
+     *
+     * @param name
+     * @return
+     * @throws JMException
+     */
+    public ObjectName register(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("org.jboss.netty.handler.codec.bayeux:type=BayeuxMetrics,name=" + ObjectName.quote(name));
+        server.registerMBean(this, objectName);
+        return objectName;
+    }
+
+    private static void increment(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.util.Map;
+
+/**
+ * Management interface of BayeuxMetrics. Latencies are in microseconds.
+ *
+ * @author daijun
+ */
+public interface BayeuxMetricsMXBean {
+
+    int getConnectionCount();
+
+    Map<String, Integer> getConnectionCountByState();
+
+    Map<String, Integer> getConnectionCountByType();
+
+    Map<String, Integer> getSubscriberCountByChannel();
+
+    long getDownstreamQueueDepth();
+
+    int getMaxDownstreamQueueDepth();
+
+    long getPublishCount();
+
+    double getPublishRate();
+
+    long getDeliverCount();
+
+    long getDropCount();
+
+    double getFanOutMean();
+
+    long getFanOutP99();
+
+    long getFanOutMax();
+
+    long getDecodeLatencyP50();
+
+    long getDecodeLatencyP99();
+
+    long getEncodeLatencyP50();
+
+    long getEncodeLatencyP99();
+
+    long getBytesIn();
+
+    long getBytesOut();
+}
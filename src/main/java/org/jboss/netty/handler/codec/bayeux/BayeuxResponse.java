@@ -0,0 +1,122 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * An encoded batch of Bayeux messages, which is written by BayeuxConnection
+ * and turned into a HTTP response, or a chunk of a streaming one, by
+ * BayeuxEncoder.
+ *
+ * @author daijun
+ */
+public class BayeuxResponse {
+
+    private final ChannelBuffer content;
+    private final boolean keepAlive;
+    private final BayeuxConnection.TYPE streamType;
+    private final boolean isStart;
+    private final BayeuxEncoding encoding;
+
+    public BayeuxResponse(ChannelBuffer content) {
+        this(content, false);
+    }
+
+    public BayeuxResponse(ChannelBuffer content, boolean keepAlive) {
+        this(content, keepAlive, BayeuxEncoding.IDENTITY);
+    }
+
+    /**
+     * Create a complete response of compressed content.
+     *
+     * @param content
+     * @param keepAlive
+     * @param encoding coding, in which content is compressed
+     */
+    public BayeuxResponse(ChannelBuffer content, boolean keepAlive, BayeuxEncoding encoding) {
+        this.content = content;
+        this.keepAlive = keepAlive;
+        this.streamType = null;
+        this.isStart = false;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Create a chunk of streaming response.
+     *
+     * @param content
+     * @param streamType IFRAME or HTTP_STREAMING
+     * @param isStart whether it's the first chunk
+     */
+    public BayeuxResponse(ChannelBuffer content, BayeuxConnection.TYPE streamType, boolean isStart) {
+        this.content = content;
+        this.keepAlive = true;
+        this.streamType = streamType;
+        this.isStart = isStart;
+        this.encoding = BayeuxEncoding.IDENTITY;
+    }
+
+    /**
+     * Returns content of the response, which may be composed of buffers shared
+     * with other responses, so it must not be modified.
+     *
+     * @return
+     */
+    public ChannelBuffer getContent() {
+        return content;
+    }
+
+    /**
+     * Returns whether HTTP connection stays open for next request of client
+     * after the response, otherwise it's closed.
+     *
+     * @return
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Returns connection type of the stream, or null if it's a complete HTTP
+     * response.
+     *
+     * @return
+     */
+    public BayeuxConnection.TYPE getStreamType() {
+        return streamType;
+    }
+
+    /**
+     * Returns whether the chunk starts the never completed HTTP response of
+     * a stream.
+     *
+     * @return
+     */
+    public boolean isStart() {
+        return isStart;
+    }
+
+    /**
+     * Returns the coding, in which content of a complete HTTP response is
+     * compressed.
+     *
+     * @return
+     */
+    public BayeuxEncoding getEncoding() {
+        return encoding;
+    }
+}
@@ -15,36 +15,351 @@
  */
 package org.jboss.netty.handler.codec.bayeux;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.logging.InternalLogger;
+import org.jboss.netty.logging.InternalLoggerFactory;
+import org.jboss.netty.util.ExternalResourceReleasable;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 
 /**
- * BayeuxRouter is another core part of Bayeux. It's a singleton class holding
- * all connections with routing table and their subscriptions.
- * 
+ * BayeuxRouter is another core part of Bayeux. It holds all connections of a
+ * Bayeux endpoint with routing table and their subscriptions, and is shared
+ * by all I/O threads of the endpoint.
+ *
  * @author daijun
  */
-public class BayeuxRouter {
+public class BayeuxRouter implements ExternalResourceReleasable {
 
-    private final Map<String, BayeuxConnection> connections = new HashMap<String, BayeuxConnection>();
-    private final Map<String, List<BayeuxConnection>> subscriptions = new HashMap<String, List<BayeuxConnection>>();
+    private static final InternalLogger logger =
+            InternalLoggerFactory.getInstance(BayeuxRouter.class.getName());
+    private static final int LOCK_STRIPES = 32;
+    private final ConcurrentMap<String, BayeuxConnection> connections = new ConcurrentHashMap<String, BayeuxConnection>();
+    private final ConcurrentMap<String, List<BayeuxConnection>> subscriptions = new ConcurrentHashMap<String, List<BayeuxConnection>>();
+    private final ChannelTrie<BayeuxConnection> subscriptionIndex = new ChannelTrie<BayeuxConnection>();
+    private final Object[] locks = new Object[LOCK_STRIPES];//Stripes of channels, keeping a listener list and its index entry consistent
     private static final BayeuxRouter instance = new BayeuxRouter();
+    private volatile Timer timer;
+    private volatile BayeuxDispatcher dispatcher;
+    private volatile BayeuxCluster cluster;
+    private volatile BayeuxLog log;
+    private final BayeuxMetrics metrics = new BayeuxMetrics(this);
+    private volatile BayeuxIdGenerator idGenerator = new RandomIdGenerator();
+    private volatile long connectTimeout = 30000;//Milliseconds to hold a connect request
+    private volatile long connectInterval = 0;//Milliseconds for client to wait before next connect
+    private volatile long maxInterval = 60000;//Milliseconds to expire an idle client
+    private volatile int downstreamCapacity = 1000;//Default number of deliveries connections' downstream queue holds
+    private volatile BayeuxConnection.OVERFLOW overflow = BayeuxConnection.OVERFLOW.DROP_OLDEST;
+    private volatile int batchSize = 0;//Default messages to flush a batch immediately
+    private volatile long batchDelay = 0;//Default microseconds to wait for more messages of a batch
+    private volatile int compressionThreshold = 1024;//Bytes of a response to be compressed, negative for never
+    private final Set<BayeuxConnection.TYPE> connectionTypes = new CopyOnWriteArraySet<BayeuxConnection.TYPE>(
+            Arrays.asList(BayeuxConnection.TYPE.LONG_POLLING, BayeuxConnection.TYPE.CALLBACK_POLLING));
 
-    private BayeuxRouter() {
+    public BayeuxRouter() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
     }
 
     /**
-     * Return the instance of BayeuxRouter.
+     * Return the default instance of BayeuxRouter, which is shared by codecs
+     * created without a router.
      *
+     * @deprecated create a router and pass it to BayeuxDecoder and BayeuxEncoder instead
      * @return
      */
-    public static synchronized BayeuxRouter getInstance() {
+    @Deprecated
+    public static BayeuxRouter getInstance() {
         return instance;
     }
 
+    /**
+     * Returns the timer of connections, creating a hashed wheel timer on
+     * first call if it's not set.
+     *
+     * @return
+     */
+    public Timer getTimer() {
+        Timer current = timer;
+        if (current == null) {
+            synchronized (this) {
+                current = timer;
+                if (current == null) {
+                    current = new HashedWheelTimer(new ThreadFactory() {
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "Bayeux timer");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, 10, TimeUnit.MILLISECONDS);
+                    timer = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Set the timer of connections, which holds long-polling connect requests
+     * and checks clients for expiry. The default one ticks every 10
+     * milliseconds, which is the precision of connect timeouts, batch delays
+     * and expiry. It's stopped by releaseExternalResources().
+     *
+     * @param timer
+     */
+    public void setTimer(Timer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * Stop the timer of connections, as well as the dispatcher and the
+     * cluster, and force the log to disk.
+     */
+    @Override
+    public void releaseExternalResources() {
+        BayeuxLog currentLog = log;
+        if (currentLog != null) {
+            currentLog.releaseExternalResources();
+        }
+        BayeuxCluster currentCluster = cluster;
+        if (currentCluster != null) {
+            currentCluster.releaseExternalResources();
+        }
+        Timer current = timer;
+        if (current != null) {
+            current.stop();
+        }
+        BayeuxDispatcher currentDispatcher = dispatcher;
+        if (currentDispatcher != null) {
+            currentDispatcher.releaseExternalResources();
+        }
+    }
+
+    public BayeuxDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Set a dispatcher to deliver published messages on its own threads. If
+     * it's null, they're delivered on publishing threads.
+     *
+     * @param dispatcher
+     */
+    public void setDispatcher(BayeuxDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Returns metrics of this router, its connections and codecs.
+     *
+     * @return
+     */
+    public BayeuxMetrics getMetrics() {
+        return metrics;
+    }
+
+    public BayeuxIdGenerator getIdGenerator() {
+        return idGenerator;
+    }
+
+    /**
+     * Set the generator of client ids of connections added later. It should
+     * be set before serving clients, since a sharded router finds clients by
+     * tags of their ids.
+     *
+     * @param idGenerator
+     */
+    public void setIdGenerator(BayeuxIdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    public BayeuxCluster getCluster() {
+        return cluster;
+    }
+
+    /**
+     * Join a cluster, which is told of all the current subscriptions, and
+     * forwards published messages to peers having subscribers of their
+     * channels. It should be set before serving clients.
+     *
+     * @param cluster
+     */
+    public void setCluster(BayeuxCluster cluster) {
+        cluster.join(this);
+        this.cluster = cluster;
+        for (String subscription : getSubscriptions().keySet()) {
+            cluster.subscribe(subscription);
+        }
+    }
+
+    public BayeuxLog getLog() {
+        return log;
+    }
+
+    /**
+     * Set a log to append published messages to before delivering, so that
+     * reconnecting clients can resume from their last received message. If
+     * it's null, messages are only kept in downstream queues.
+     *
+     * @param log
+     */
+    public void setLog(BayeuxLog log) {
+        this.log = log;
+    }
+
+    public long getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Set milliseconds to hold a connect request, while there is no message
+     * for the client. If it's 0, connect requests are answered immediately.
+     *
+     * @param connectTimeout
+     */
+    public void setConnectTimeout(long connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public long getConnectInterval() {
+        return connectInterval;
+    }
+
+    /**
+     * Set milliseconds advised to client to wait before its next connect.
+     *
+     * @param connectInterval
+     */
+    public void setConnectInterval(long connectInterval) {
+        this.connectInterval = connectInterval;
+    }
+
+    public long getMaxInterval() {
+        return maxInterval;
+    }
+
+    /**
+     * Set milliseconds to expire a client without any request. If it's 0,
+     * clients never expire.
+     *
+     * Each connection has one timeout on the timer. When it elapses, the
+     * connection is removed if it's been idle for max interval, otherwise
+     * it's checked again for the rest, so no connections are scanned.
+     *
+     * @param maxInterval
+     */
+    public void setMaxInterval(long maxInterval) {
+        this.maxInterval = maxInterval;
+    }
+
+    public int getDownstreamCapacity() {
+        return downstreamCapacity;
+    }
+
+    /**
+     * Set default capacity of downstream queue of connections created later,
+     * which is the number of deliveries it holds.
+     *
+     * @param downstreamCapacity
+     */
+    public void setDownstreamCapacity(int downstreamCapacity) {
+        this.downstreamCapacity = downstreamCapacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set default number of messages, which completes a batch of connections
+     * created later. If it's 0, a batch is only completed by its delay.
+     *
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getBatchDelay() {
+        return batchDelay;
+    }
+
+    /**
+     * Set default microseconds of connections created later, to wait for
+     * more deliveries before sending them. If it's 0, deliveries are sent
+     * immediately.
+     *
+     * @param batchDelay
+     */
+    public void setBatchDelay(long batchDelay) {
+        this.batchDelay = batchDelay;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Set the size of responses in bytes, from which they are compressed for
+     * clients accepting gzip or deflate. Smaller ones aren't worth it. If
+     * it's negative, responses are never compressed.
+     *
+     * @param compressionThreshold
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public BayeuxConnection.OVERFLOW getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * Set default overflow policy of connections created later.
+     *
+     * @param overflow
+     */
+    public void setOverflow(BayeuxConnection.OVERFLOW overflow) {
+        this.overflow = overflow;
+    }
+
+    /**
+     * Returns connection types advertised to clients in handshake, which are
+     * long-polling and callback-polling, unless others are added.
+     *
+     * @return
+     */
+    public Set<BayeuxConnection.TYPE> getConnectionTypes() {
+        return connectionTypes;
+    }
+
+    /**
+     * Advertise a connection type to clients, which the pipelines of router
+     * can serve. WebSocketUpgradeHandler adds "websocket" itself, "iframe" and
+     * "http-streaming" are served by BayeuxEncoder once they're added.
+     *
+     * @param type
+     */
+    public void addConnectionType(BayeuxConnection.TYPE type) {
+        connectionTypes.add(type);
+    }
+
     /**
      * Get a connection instance by client id. If router dose't exist a
      * connection by the cilent id, return null.
@@ -53,6 +368,9 @@ public class BayeuxRouter {
      * @return
      */
     public BayeuxConnection getConnection(String clientId) {
+        if (clientId == null) {
+            return null;
+        }
         return connections.get(clientId);
     }
 
@@ -60,7 +378,11 @@ public class BayeuxRouter {
      * Clear router's connections and subscriptions.
      */
     public void clear() {
+        for (String subscription : subscriptions.keySet()) {
+            unsubscribed(subscription);
+        }
         subscriptions.clear();
+        subscriptionIndex.clear();
         for (Entry<String, BayeuxConnection> entry : connections.entrySet()) {
             entry.getValue().close();
         }
@@ -73,12 +395,77 @@ public class BayeuxRouter {
      * @param connection
      */
     public void addConnection(BayeuxConnection connection) {
+        BayeuxIdGenerator generator = idGenerator;
+        int tag = nextTag();
         String clientId = null;
         do {
-            clientId = BayeuxUtil.generateUUID();
-        } while (connections.containsKey(clientId));
+            clientId = generator.generateId(tag);
+        } while (!putConnection(clientId, connection));
         connection.setClientId(clientId);
-        connections.put(clientId, connection);
+        scheduleExpiry(connection, maxInterval);
+    }
+
+    /**
+     * Returns the tag of next client id, which is always 0 for a router
+     * without shards.
+     *
+     * @return
+     */
+    protected int nextTag() {
+        return 0;
+    }
+
+    /**
+     * Check a connection after delay milliseconds for expiry.
+     *
+     * @param connection
+     * @param delay
+     */
+    private void scheduleExpiry(final BayeuxConnection connection, long delay) {
+        if (delay <= 0) {
+            return;
+        }
+        getTimer().newTimeout(new TimerTask() {
+
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                expire(connection);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Remove a connection if it's been idle for max interval, otherwise check
+     * it again when it will be.
+     *
+     * @param connection
+     */
+    protected void expire(BayeuxConnection connection) {
+        if (getConnection(connection.getClientId()) != connection) {//Removed already
+            return;
+        }
+        long interval = maxInterval;
+        long idleTime = connection.getIdleTime();
+        if (interval > 0 && idleTime >= interval) {
+            connection.setState(BayeuxConnection.STATE.DISCONNECTED);
+            removeConnection(connection);
+            connection.clear();
+            connection.close();
+        } else {
+            scheduleExpiry(connection, interval - idleTime);
+        }
+    }
+
+    /**
+     * Reserve a client id for a connection. Return false if the client id is
+     * taken by another connection.
+     *
+     * @param clientId
+     * @param connection
+     * @return
+     */
+    protected boolean putConnection(String clientId, BayeuxConnection connection) {
+        return connections.putIfAbsent(clientId, connection) == null;
     }
 
     /**
@@ -88,11 +475,11 @@ public class BayeuxRouter {
      * @return
      */
     public boolean removeConnection(BayeuxConnection connection) {
-        if (getConnection(connection.getClientId()) != null) {
+        String clientId = connection.getClientId();
+        if (clientId != null && connections.remove(clientId, connection)) {
             for (String subscription : connection.getSubscriptions()) {
                 removeListener(subscription, connection);
             }
-            connections.remove(connection.getClientId());
             return true;
         } else {
             return false;
@@ -101,48 +488,104 @@ public class BayeuxRouter {
 
     /**
      * Add a new subscription to a connection. Return false if the connection
-     * already subscribes it, and return true if not.
+     * already subscribes it, or it's been removed from router, and return
+     * true if not.
+     *
+     * Subscriptions are kept by their keys in lower case, since channels are
+     * matched regardless of case.
      *
      * @param subscription
      * @param connection
      * @return
      */
     public boolean addListener(String subscription, BayeuxConnection connection) {
-        if (subscription.endsWith("/")) {
-            subscription = subscription.substring(0, (subscription.length() - 1));
-        }
-        List<BayeuxConnection> listeners = subscriptions.get(subscription);
-        if (listeners == null) {
-            listeners = new ArrayList<BayeuxConnection>();
-            subscriptions.put(subscription, listeners);
-        }
-
-        if (listeners.contains(connection)) {
-            return false;
+        subscription = ChannelId.of(subscription).getKey();
+        String clientId = connection.getClientId();
+        synchronized (lockOf(subscription)) {
+            if (clientId == null || connections.get(clientId) != connection) {//Removed, maybe expired meanwhile
+                return false;
+            }
+            List<BayeuxConnection> listeners = subscriptions.get(subscription);
+            if (listeners == null) {
+                listeners = new CopyOnWriteArrayList<BayeuxConnection>();
+                subscriptions.put(subscription, listeners);
+                subscriptionIndex.put(subscription, listeners);
+                subscribed(subscription);
+            }
+            return ((CopyOnWriteArrayList<BayeuxConnection>) listeners).addIfAbsent(connection);
         }
-
-        listeners.add(connection);
-        return true;
     }
 
     /**
-     * Remove a subscription from a connection and return true.
+     * Remove a subscription from a connection. Return false if the connection
+     * doesn't subscribe it, and return true if it does.
      *
      * @param subscription
      * @param connection
      * @return
      */
     public boolean removeListener(String subscription, BayeuxConnection connection) {
-        for (String sub : BayeuxUtil.prefixMatch(subscription, subscriptions.keySet())) {
-            List<BayeuxConnection> listeners = subscriptions.get(sub);
-            if (listeners.contains(connection)) {
-                listeners.remove(connection);
-                if (listeners.isEmpty()) {
-                    subscriptions.remove(subscription);
-                }
+        subscription = ChannelId.of(subscription).getKey();
+        synchronized (lockOf(subscription)) {
+            List<BayeuxConnection> listeners = subscriptions.get(subscription);
+            if (listeners == null || !listeners.remove(connection)) {
+                return false;
+            }
+            if (listeners.isEmpty()) {
+                subscriptions.remove(subscription);
+                subscriptionIndex.remove(subscription);
+                unsubscribed(subscription);
             }
+            return true;
         }
-        return true;
+    }
+
+    /**
+     * Called when a subscription gets its first listener, to tell the
+     * cluster that this node is interested in it.
+     *
+     * @param subscription
+     */
+    protected void subscribed(String subscription) {
+        BayeuxCluster currentCluster = cluster;
+        if (currentCluster != null) {
+            currentCluster.subscribe(subscription);
+        }
+    }
+
+    /**
+     * Called when a subscription loses its last listener.
+     *
+     * @param subscription
+     */
+    protected void unsubscribed(String subscription) {
+        BayeuxCluster currentCluster = cluster;
+        if (currentCluster != null) {
+            currentCluster.unsubscribe(subscription);
+        }
+    }
+
+    /**
+     * Returns the lock guarding subscribing and unsubscribing of a channel.
+     *
+     * @param subscription
+     * @return
+     */
+    private Object lockOf(String subscription) {
+        int hash = subscription.hashCode();
+        hash ^= (hash >>> 16);
+        return locks[hash & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * Returns all the connections subscribing to channels matching the given
+     * one.
+     *
+     * @param channel
+     * @return
+     */
+    protected Set<BayeuxConnection> match(String channel) {
+        return subscriptionIndex.match(channel);
     }
 
     /**
@@ -161,19 +604,13 @@ public class BayeuxRouter {
      * @param publishRequest
      * @return
      */
+    @Deprecated
     public boolean onPublish(PublishRequest publishRequest) {
         String subscription = publishRequest.getChannel();
         if (subscription == null || subscription.length() == 0) {
             return false;
         }
-        List<BayeuxConnection> matchedConnections = new ArrayList<BayeuxConnection>();
-        for (String sub : BayeuxUtil.prefixMatch(subscription, subscriptions.keySet())) {
-            for (BayeuxConnection conn : subscriptions.get(sub)) {
-                if (!matchedConnections.contains(conn)) {
-                    matchedConnections.add(conn);
-                }
-            }
-        }
+        Set<BayeuxConnection> matchedConnections = match(subscription);
         for (BayeuxConnection connection : matchedConnections) {
             DeliverEvent deliverEvent = new DeliverEvent(publishRequest);
             deliverEvent.setId(connection.getId());
@@ -181,7 +618,8 @@ public class BayeuxRouter {
                 connection.setId(publishRequest.getId());
                 connection.putToDownstream(deliverEvent);
             } else {
-                connection.send(deliverEvent);
+                connection.putToDownstream(deliverEvent);
+                connection.flushBatch();
             }
         }
         return true;
@@ -194,6 +632,7 @@ public class BayeuxRouter {
      * @param list
      * @return
      */
+    @Deprecated
     public boolean onPublish(List<PublishRequest> list) {
         boolean result = true;
         for (PublishRequest publish : list) {
@@ -205,40 +644,109 @@ public class BayeuxRouter {
     }
 
     /**
-     * Publish data to subscribing clients.
+     * Publish data to subscribing clients, and to peers of the cluster if
+     * it's set. If a dispatcher is set, it returns once the data is queued
+     * for routing, or false if the queue is full.
      *
      * @param publisher
      * @param deliver
      * @return
      */
     public boolean publish(BayeuxConnection publisher, DeliverEvent deliver) {
-        if (!deliver.isValid()) {
+        if (!isPublishable(deliver)) {
             return false;
         }
 
-        String subscription = deliver.getChannel();
-        if (subscription == null || subscription.length() == 0) {
+        BayeuxDispatcher currentDispatcher = dispatcher;
+        if (currentDispatcher == null) {
+            route(publisher, deliver, true);
+        } else if (!currentDispatcher.dispatch(publisher, deliver, true)) {
             return false;
         }
+        metrics.published();
+        return true;
+    }
 
-        List<BayeuxConnection> matchedConnections = new ArrayList<BayeuxConnection>();
-        for (String sub : BayeuxUtil.prefixMatch(subscription, subscriptions.keySet())) {
-            for (BayeuxConnection conn : subscriptions.get(sub)) {
-                if (!matchedConnections.contains(conn)) {
-                    matchedConnections.add(conn);
-                }
+    /**
+     * Returns whether data can be published, that's it's valid and has a
+     * channel. Publishing such data only fails if the dispatcher is full.
+     *
+     * @param deliver
+     * @return
+     */
+    public boolean isPublishable(DeliverEvent deliver) {
+        String subscription = deliver.getChannel();
+        return deliver.isValid() && subscription != null && subscription.length() > 0;
+    }
+
+    /**
+     * Deliver data published on a peer of the cluster to local subscribers.
+     * It's never forwarded to the cluster again.
+     *
+     * @param deliver
+     */
+    public void receive(DeliverEvent deliver) {
+        BayeuxDispatcher currentDispatcher = dispatcher;
+        if (currentDispatcher == null) {
+            route(null, deliver, false);
+        } else if (!currentDispatcher.dispatch(null, deliver, false)) {
+            logger.warn("Dispatcher is full, dropped a message of " + deliver.getChannel());
+        }
+    }
+
+    /**
+     * Route accepted data: append it to the log, deliver it to subscribing
+     * clients, and forward it to peers of the cluster if it's published
+     * locally. It runs on the dispatching thread if a dispatcher is set, so
+     * rejected data is never logged.
+     *
+     * @param publisher
+     * @param deliver
+     * @param local whether it's published locally rather than received from a peer
+     */
+    protected void route(BayeuxConnection publisher, DeliverEvent deliver, boolean local) {
+        append(deliver);
+        deliver(publisher, deliver);
+        BayeuxCluster currentCluster = cluster;
+        if (local && currentCluster != null) {
+            currentCluster.publish(deliver);
+        }
+    }
+
+    /**
+     * Append data to the log if it's set. Data failed to be logged is still
+     * delivered.
+     *
+     * @param deliver
+     */
+    private void append(DeliverEvent deliver) {
+        BayeuxLog currentLog = log;
+        if (currentLog != null) {
+            try {
+                currentLog.append(deliver);
+            } catch (IOException e) {
+                logger.warn("Failed to log a message of " + deliver.getChannel(), e);
             }
         }
+    }
 
+    /**
+     * Deliver data to subscribing clients. The publisher's copy is only
+     * queued, to be sent with the response of its publish request, others
+     * are flushed.
+     *
+     * @param publisher
+     * @param deliver
+     */
+    protected void deliver(BayeuxConnection publisher, DeliverEvent deliver) {
+        Set<BayeuxConnection> matchedConnections = match(deliver.getChannel());
+        metrics.delivered(matchedConnections.size());
         for (BayeuxConnection connection : matchedConnections) {
-            if (connection == publisher) {
-                connection.putToDownstream(deliver);
-            } else {
-                connection.send(deliver);
+            connection.putToDownstream(deliver);
+            if (connection != publisher) {
+                connection.flushBatch();
             }
         }
-
-        return true;
     }
 
     /**
@@ -15,15 +15,10 @@
  */
 package org.jboss.netty.handler.codec.bayeux;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.Set;
-import java.util.TimeZone;
 import java.util.UUID;
-import java.util.regex.Pattern;
 
 /**
  * Contains simple and useful of this codec. They are abstracted from other
@@ -33,33 +28,43 @@ import java.util.regex.Pattern;
  */
 public class BayeuxUtil {
 
-    private static DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
-
-    static {
-        df.setTimeZone(TimeZone.getTimeZone("GMT"));
+    /**
+     * Returns current time in format of ISO8601:2000(YYYY-MM-DDTHH:MM:SS).
+     * It's cached by BayeuxClock for a second, and never locks.
+     *
+     * @return
+     */
+    public static String getCurrentTime() {
+        return BayeuxClock.getInstance(false).getCurrentTime();
     }
 
     /**
-     * Returns current time in format of ISO8601:2000(YYYY-MM-DDTHH:MM:SS).
+     * Returns current time in format of ISO8601:2000, with hundredths of a
+     * second (YYYY-MM-DDTHH:MM:SS.SS) if it's precise.
      *
+     * @param precise
      * @return
      */
-    public static synchronized String getCurrentTime() {
-        return df.format(new Date());
+    public static String getCurrentTime(boolean precise) {
+        return BayeuxClock.getInstance(precise).getCurrentTime();
     }
 
     /**
      * Returns a string of 16 HEX chars.
      *
+     * @deprecated use a BayeuxIdGenerator, like RandomIdGenerator, instead
      * @return
      */
+    @Deprecated
     public static String generateUUID() {
         UUID uuid = UUID.randomUUID();
         return Long.toHexString(uuid.getMostSignificantBits());
     }
 
     /**
-     * Channel prefix matching algorithm using "*" or "**" as wild chars.
+     * Channel prefix matching algorithm using "*" or "**" as wild chars. It
+     * returns the channels which match the given one, or are matched by it.
+     * Channels are parsed once by ChannelId, and no pattern is compiled.
      *
      * @param match
      * @param strings
@@ -67,35 +72,11 @@ public class BayeuxUtil {
      */
     public static List<String> prefixMatch(String match, String[] strings) {
         List<String> matched = new ArrayList<String>();
-        Pattern prefix = null;
-        if (match.endsWith("**")) {
-            match = match.substring(0, match.length() - 2);
-            prefix = Pattern.compile(match + "[\\w/]*",
-                    Pattern.CASE_INSENSITIVE + Pattern.UNICODE_CASE);
-        } else if (match.endsWith("*")) {
-            match = match.substring(0, match.length() - 1);
-            prefix = Pattern.compile(match + "\\w*",
-                    Pattern.CASE_INSENSITIVE + Pattern.UNICODE_CASE);
-        } else {
-            prefix = Pattern.compile(match, Pattern.CASE_INSENSITIVE + Pattern.UNICODE_CASE);
-
-        }
-        Pattern prefix2 = null;
-        for (int i = 0; i < strings.length; i++) {
-            if (strings[i].endsWith("**")) {
-                prefix2 = Pattern.compile(strings[i].substring(0,
-                        strings[i].length() - 2) + "[\\w/]*", Pattern.CASE_INSENSITIVE + Pattern.UNICODE_CASE);
-            } else if (strings[i].endsWith("*")) {
-                prefix2 = Pattern.compile(strings[i].substring(0,
-                        strings[i].length() - 1) + "\\w*", Pattern.CASE_INSENSITIVE + Pattern.UNICODE_CASE);
-            } else {
-                prefix2 = Pattern.compile(strings[i],
-                        Pattern.CASE_INSENSITIVE + Pattern.UNICODE_CASE);
-            }
-            if (prefix.matcher(strings[i]).matches()) {
-                matched.add(strings[i]);
-            } else if (prefix2.matcher(match).matches()) {
-                matched.add(strings[i]);
+        ChannelId matchId = ChannelId.of(match);
+        for (String string : strings) {
+            ChannelId id = ChannelId.of(string);
+            if (matchId.matches(id) || id.matches(matchId)) {
+                matched.add(string);
             }
         }
         return matched;
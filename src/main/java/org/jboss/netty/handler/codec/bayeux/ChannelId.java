@@ -0,0 +1,270 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A parsed Bayeux channel name, like /chat/room or /chat/*. A name is split
+ * into its segments once, and ChannelId.of() interns it, so that validating,
+ * indexing and matching the same channel again never parses it.
+ *
+ * A valid channel starts with "/" and has one or more segments, and only
+ * its last segment may be a wildcard, "*" for exactly one segment or "**"
+ * for one or more segments. Empty segments are ignored, so /chat/ is the
+ * same as /chat.
+ *
+ * Channels are matched regardless of case, like /Chat/* matches /chat/room,
+ * by their keys, which are their names in lower case.
+ *
+ * Names come from clients, so interned ids are kept in two generations of
+ * bounded size. When the young one is full, it becomes the old one, and the
+ * former old one is dropped. Ids used again are moved back to the young one,
+ * so channels in use stay interned, while unused names age out.
+ *
+ * @author daijun
+ */
+public final class ChannelId {
+
+    /**
+     * Wildcard kind of a channel.
+     */
+    public enum WILD {
+
+        NONE,
+        WILD,
+        DEEP_WILD
+    }
+    static final int MAX_INTERNED = 16384;
+    private static volatile ConcurrentMap<String, ChannelId> young = new ConcurrentHashMap<String, ChannelId>();
+    private static volatile ConcurrentMap<String, ChannelId> old = new ConcurrentHashMap<String, ChannelId>();
+    private final String name;
+    private final String[] segments;
+    private final String key;
+    private final String[] keys;
+    private final WILD wild;
+    private final boolean valid;
+
+    private ChannelId(String name) {
+        this.segments = split(name);
+        int depth = segments.length;
+        String last = depth == 0 ? null : segments[depth - 1];
+        this.wild = "*".equals(last) ? WILD.WILD : "**".equals(last) ? WILD.DEEP_WILD : WILD.NONE;
+        boolean valid = name.startsWith("/") && depth > 0;
+        for (int i = 0; i < depth - 1 && valid; i++) {
+            valid = !"*".equals(segments[i]) && !"**".equals(segments[i]);
+        }
+        this.valid = valid;
+        StringBuilder normalized = new StringBuilder(name.length());
+        for (String segment : segments) {
+            normalized.append('/').append(segment);
+        }
+        this.name = normalized.length() == 0 ? name : normalized.toString();
+        this.key = this.name.toLowerCase(Locale.ENGLISH);
+        if (key.equals(this.name)) {
+            this.keys = segments;
+        } else {
+            this.keys = new String[depth];
+            for (int i = 0; i < depth; i++) {
+                keys[i] = segments[i].toLowerCase(Locale.ENGLISH);
+            }
+        }
+    }
+
+    /**
+     * Returns the id of a channel name, or null if the name is null.
+     *
+     * @param name
+     * @return
+     */
+    public static ChannelId of(String name) {
+        if (name == null) {
+            return null;
+        }
+        ConcurrentMap<String, ChannelId> current = young;
+        ChannelId id = current.get(name);
+        if (id != null) {
+            return id;
+        }
+        id = old.get(name);
+        if (id == null) {
+            id = new ChannelId(name);
+        }
+        ChannelId existing = current.putIfAbsent(name, id);
+        if (existing != null) {
+            return existing;
+        }
+        if (current.size() >= MAX_INTERNED / 2) {
+            age(current);
+        }
+        return id;
+    }
+
+    /**
+     * Make the full young generation the old one.
+     */
+    private static synchronized void age(ConcurrentMap<String, ChannelId> full) {
+        if (young == full) {
+            old = full;
+            young = new ConcurrentHashMap<String, ChannelId>();
+        }
+    }
+
+    /**
+     * Returns number of interned ids.
+     */
+    static int countInterned() {
+        return young.size() + old.size();
+    }
+
+    /**
+     * Returns the normalized name, without empty segments.
+     *
+     * @return
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getDepth() {
+        return segments.length;
+    }
+
+    public String getSegment(int index) {
+        return segments[index];
+    }
+
+    /**
+     * Returns the normalized name in lower case, by which channels are
+     * matched.
+     *
+     * @return
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the segments in lower case, which are shared and must not be
+     * changed.
+     */
+    String[] getKeys() {
+        return keys;
+    }
+
+    public WILD getWild() {
+        return wild;
+    }
+
+    public boolean isWild() {
+        return wild != WILD.NONE;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Returns true if it's a meta channel, /meta or below it.
+     *
+     * @return
+     */
+    public boolean isMeta() {
+        return segments.length > 0 && "meta".equals(segments[0]);
+    }
+
+    /**
+     * Returns true if the given channel is matched by this one, like /chat/*
+     * matches /chat/room and /chat/** matches /chat/room/1. A channel without
+     * wildcard only matches itself. Case is ignored. Invalid channels never
+     * match.
+     *
+     * @param channel
+     * @return
+     */
+    public boolean matches(ChannelId channel) {
+        if (channel == this) {
+            return valid;
+        }
+        if (!valid || channel == null || !channel.valid) {
+            return false;
+        }
+        int depth = segments.length;
+        int otherDepth = channel.segments.length;
+        switch (wild) {
+            case NONE:
+                return key.equals(channel.key);
+            case WILD:
+                if (otherDepth != depth) {
+                    return false;
+                }
+                break;
+            default:
+                if (otherDepth < depth) {
+                    return false;
+                }
+        }
+        for (int i = 0; i < depth - 1; i++) {
+            if (!keys[i].equals(channel.keys[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || (o instanceof ChannelId && name.equals(((ChannelId) o).name));
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Split a channel name into its segments, ignoring the leading and the
+     * trailing "/".
+     *
+     * @param channel
+     * @return
+     */
+    private static String[] split(String channel) {
+        List<String> segments = new ArrayList<String>();
+        int start = 0;
+        int length = channel.length();
+        while (start < length) {
+            int end = channel.indexOf('/', start);
+            if (end == -1) {
+                end = length;
+            }
+            if (end > start) {
+                segments.add(channel.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return segments.toArray(new String[segments.size()]);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A subscription index keyed on "/" separated channel segments. Every node
+ * has a dedicated child for "*" and "**", so matching a published channel only
+ * walks the branches which can match it, in O(depth) instead of comparing
+ * against every subscribed channel.
+ *
+ * Channel "/a/*" matches exactly one more segment, like /a/b, and "/a/**"
+ * matches one or more segments, like /a/b and /a/b/c. Publishing to a
+ * wildcard channel itself is also supported, "/a/*" reaches all subscribers
+ * of /a/x, and "/a/**" reaches all subscribers below /a.
+ *
+ * Matching is lock-free and may run concurrently with put and remove, which
+ * are serialized with each other. Listener collections are read as they are,
+ * so they should be thread safe themselves, like a copy-on-write list.
+ *
+ * Listeners are usually connections, but may be anything interested in
+ * channels, like peers of a cluster.
+ *
+ * @author daijun
+ */
+public class ChannelTrie<T> {
+
+    private static final String WILD = "*";
+    private static final String DEEP_WILD = "**";
+    private final Node<T> root = new Node<T>();
+
+    /**
+     * Index listeners of a channel. It replaces listeners which were put
+     * before on the same channel.
+     *
+     * @param channel
+     * @param listeners
+     */
+    public synchronized void put(String channel, Collection<T> listeners) {
+        Node<T> node = root;
+        for (String segment : ChannelId.of(channel).getKeys()) {
+            node = node.getOrCreateChild(segment);
+        }
+        node.listeners = listeners;
+    }
+
+    /**
+     * Remove listeners of a channel from index and prune the branch, if it
+     * doesn't lead to other subscriptions any more.
+     *
+     * @param channel
+     * @return
+     */
+    public synchronized boolean remove(String channel) {
+        String[] segments = ChannelId.of(channel).getKeys();
+        List<Node<T>> path = new ArrayList<Node<T>>(segments.length + 1);
+        path.add(root);
+        for (int i = 0; i < segments.length; i++) {
+            Node<T> child = path.get(i).getChild(segments[i]);
+            if (child == null) {
+                return false;
+            }
+            path.add(child);
+        }
+        Node<T> node = path.get(segments.length);
+        if (node.listeners == null) {
+            return false;
+        }
+        node.listeners = null;
+        for (int i = segments.length; i > 0 && path.get(i).isEmpty(); i--) {
+            path.get(i - 1).removeChild(segments[i - 1]);
+        }
+        return true;
+    }
+
+    /**
+     * Returns all the listeners of channels matching the given one. Each
+     * listener appears once, even if it matches several subscriptions.
+     *
+     * @param channel
+     * @return
+     */
+    public Set<T> match(String channel) {
+        Set<T> matched = new LinkedHashSet<T>();
+        String[] segments = ChannelId.of(channel).getKeys();
+        if (segments.length > 0) {
+            match(root, segments, 0, matched);
+        }
+        return matched;
+    }
+
+    /**
+     * Remove all subscriptions from index.
+     */
+    public synchronized void clear() {
+        root.clear();
+    }
+
+    private void match(Node<T> node, String[] segments, int index, Set<T> matched) {
+        if (index == segments.length) {
+            node.collect(matched);
+            return;
+        }
+        Node<T> deepWild = node.deepWild;
+        if (deepWild != null) {
+            deepWild.collect(matched);
+        }
+        String segment = segments[index];
+        boolean last = index == segments.length - 1;
+        Node<T> wild = node.wild;
+        if (last && wild != null) {
+            wild.collect(matched);
+        }
+        if (last && WILD.equals(segment)) {
+            for (Node<T> child : node.children.values()) {
+                child.collect(matched);
+            }
+        } else if (last && DEEP_WILD.equals(segment)) {
+            for (Node<T> child : node.children.values()) {
+                child.collectAll(matched);
+            }
+            if (wild != null) {
+                wild.collectAll(matched);
+            }
+        } else {
+            Node<T> child = node.children.get(segment);
+            if (child != null) {
+                match(child, segments, index + 1, matched);
+            }
+        }
+    }
+
+    /**
+     * A node of channel trie. Wildcard children are kept out of the children
+     * map, so that exact segments never need to be compared with them.
+     */
+    private static class Node<T> {
+
+        private final Map<String, Node<T>> children = new ConcurrentHashMap<String, Node<T>>();
+        private volatile Node<T> wild;
+        private volatile Node<T> deepWild;
+        private volatile Collection<T> listeners;
+
+        private Node<T> getChild(String segment) {
+            if (WILD.equals(segment)) {
+                return wild;
+            } else if (DEEP_WILD.equals(segment)) {
+                return deepWild;
+            }
+            return children.get(segment);
+        }
+
+        private Node<T> getOrCreateChild(String segment) {
+            Node<T> child = getChild(segment);
+            if (child == null) {
+                child = new Node<T>();
+                if (WILD.equals(segment)) {
+                    wild = child;
+                } else if (DEEP_WILD.equals(segment)) {
+                    deepWild = child;
+                } else {
+                    children.put(segment, child);
+                }
+            }
+            return child;
+        }
+
+        private void removeChild(String segment) {
+            if (WILD.equals(segment)) {
+                wild = null;
+            } else if (DEEP_WILD.equals(segment)) {
+                deepWild = null;
+            } else {
+                children.remove(segment);
+            }
+        }
+
+        private boolean isEmpty() {
+            return listeners == null && wild == null && deepWild == null && children.isEmpty();
+        }
+
+        private void collect(Set<T> matched) {
+            Collection<T> current = listeners;
+            if (current != null) {
+                matched.addAll(current);
+            }
+        }
+
+        private void collectAll(Set<T> matched) {
+            collect(matched);
+            for (Node<T> child : children.values()) {
+                child.collectAll(matched);
+            }
+            Node<T> current = wild;
+            if (current != null) {
+                current.collectAll(matched);
+            }
+            current = deepWild;
+            if (current != null) {
+                current.collectAll(matched);
+            }
+        }
+
+        private void clear() {
+            children.clear();
+            wild = null;
+            deepWild = null;
+            listeners = null;
+        }
+    }
+}
@@ -26,6 +26,12 @@ package org.jboss.netty.handler.codec.bayeux;
  */
 public class ConnectRequest extends BayeuxMessage implements BayeuxInterface {
 
+    /**
+     * Create an empty request, which BayeuxMessageFactory binds JSON to.
+     */
+    ConnectRequest() {
+    }
+
     public ConnectRequest(BayeuxMessage bayeux) {
         super(bayeux);
         this.channel = "/meta/connect";
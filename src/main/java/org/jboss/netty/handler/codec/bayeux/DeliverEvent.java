@@ -15,7 +15,10 @@
  */
 package org.jboss.netty.handler.codec.bayeux;
 
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 
 /**
  * A Bayeux <a href="http://svn.cometd.org/trunk/bayeux/bayeux.html#toc_67">Deliver Event</a>
@@ -23,10 +26,17 @@ import java.util.regex.Pattern;
  * Required properties: channel, data
  * Optional properties: id, clientId, ext, advice
  *
+ * A deliver event is usually sent to many subscribers, so it's encoded only
+ * once and all the subscribers share the encoded bytes, as well as the deflated
+ * ones in compressed responses. Changing it by setters discards them.
+ *
  * @author daijun
  */
 public class DeliverEvent extends BayeuxMessage {
 
+    private volatile ChannelBuffer encoded;// UTF-8 JSON of this event, shared by all the subscribers
+    private volatile ChannelBuffer deflated;// Deflate segment of the encoded bytes, shared by compressed responses
+
     public DeliverEvent(BayeuxMessage bayeux) {
         super(bayeux);
         this.data = bayeux.data;
@@ -40,7 +50,8 @@ public class DeliverEvent extends BayeuxMessage {
     }
 
     public static boolean isValid(BayeuxMessage bayeux) {
-        if ("/meta".equals(bayeux.channel) || Pattern.matches("/meta/.*", bayeux.channel) || !bayeux.channel.matches("/.+")) {
+        ChannelId channelId = ChannelId.of(bayeux.channel);
+        if (channelId == null || !channelId.isValid() || channelId.isMeta()) {
             return false;
         }
         if (bayeux.data == null) {
@@ -54,12 +65,72 @@ public class DeliverEvent extends BayeuxMessage {
         return isValid(this);
     }
 
+    /**
+     * Decode events from UTF-8 JSON, like the encoded ones, keeping their
+     * original timestamps.
+     *
+     * @param buffer
+     * @return
+     */
+    public static List<DeliverEvent> decode(ChannelBuffer buffer) {
+        List<DeliverEvent> list = new ArrayList<DeliverEvent>();
+        for (BayeuxMessage bayeux : BayeuxMessageFactory.getInstance().create(buffer)) {
+            if (bayeux instanceof PublishRequest) {
+                DeliverEvent deliver = new DeliverEvent(bayeux);
+                if (bayeux.timestamp != null) {
+                    deliver.timestamp = bayeux.timestamp;
+                }
+                list.add(deliver);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns a read-only buffer of this event in UTF-8 JSON. The event is
+     * encoded at the first call, and all the returned buffers share the same
+     * bytes.
+     *
+     * @return
+     */
+    public ChannelBuffer getEncoded() {
+        ChannelBuffer buffer = encoded;
+        if (buffer == null) {
+            JSONWriter writer = new JSONWriter();
+            writeTo(writer);
+            buffer = writer.getBuffer();
+            encoded = buffer;
+        }
+        return ChannelBuffers.unmodifiableBuffer(buffer);
+    }
+
+    /**
+     * Returns a read-only buffer of the encoded bytes deflated as a segment of
+     * compressed responses, or null if it isn't supported. It's deflated at
+     * the first call, and all the returned buffers share the same bytes.
+     *
+     * @return
+     */
+    public ChannelBuffer getDeflated() {
+        ChannelBuffer buffer = deflated;
+        if (buffer == null) {
+            buffer = BayeuxEncoding.deflateSegment(getEncoded());
+            if (buffer == null) {
+                return null;
+            }
+            deflated = buffer;
+        }
+        return ChannelBuffers.unmodifiableBuffer(buffer);
+    }
+
     public BayeuxAdvice getAdvice() {
         return advice;
     }
 
     public void setAdvice(BayeuxAdvice advice) {
         this.advice = advice;
+        this.encoded = null;
+        this.deflated = null;
     }
 
     public String getChannel() {
@@ -68,6 +139,8 @@ public class DeliverEvent extends BayeuxMessage {
 
     public void setChannel(String channel) {
         this.channel = channel;
+        this.encoded = null;
+        this.deflated = null;
     }
 
     public String getClientId() {
@@ -76,6 +149,8 @@ public class DeliverEvent extends BayeuxMessage {
 
     public void setClientId(String clientId) {
         this.clientId = clientId;
+        this.encoded = null;
+        this.deflated = null;
     }
 
     public BayeuxData getData() {
@@ -84,6 +159,8 @@ public class DeliverEvent extends BayeuxMessage {
 
     public void setData(BayeuxData data) {
         this.data = data;
+        this.encoded = null;
+        this.deflated = null;
     }
 
     public BayeuxExt getExt() {
@@ -92,6 +169,8 @@ public class DeliverEvent extends BayeuxMessage {
 
     public void setExt(BayeuxExt ext) {
         this.ext = ext;
+        this.encoded = null;
+        this.deflated = null;
     }
 
     public String getId() {
@@ -100,5 +179,7 @@ public class DeliverEvent extends BayeuxMessage {
 
     public void setId(String id) {
         this.id = id;
+        this.encoded = null;
+        this.deflated = null;
     }
 }
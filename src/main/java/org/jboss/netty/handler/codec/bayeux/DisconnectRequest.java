@@ -25,6 +25,12 @@ package org.jboss.netty.handler.codec.bayeux;
  */
 public class DisconnectRequest extends BayeuxMessage implements BayeuxInterface {
 
+    /**
+     * Create an empty request, which BayeuxMessageFactory binds JSON to.
+     */
+    DisconnectRequest() {
+    }
+
     public DisconnectRequest(BayeuxMessage bayeux) {
         super(bayeux);
     }
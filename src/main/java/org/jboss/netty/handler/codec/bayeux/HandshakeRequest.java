@@ -27,6 +27,12 @@ import org.jboss.netty.handler.codec.bayeux.BayeuxConnection.TYPE;
  */
 public class HandshakeRequest extends BayeuxMessage implements BayeuxInterface {
 
+    /**
+     * Create an empty request, which BayeuxMessageFactory binds JSON to.
+     */
+    HandshakeRequest() {
+    }
+
     public HandshakeRequest(BayeuxMessage bayeux) {
         super(bayeux);
         this.version = bayeux.version;
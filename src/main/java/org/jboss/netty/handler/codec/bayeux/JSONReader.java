@@ -0,0 +1,563 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * A pull JSON reader, which tokenizes UTF-8 bytes of a ChannelBuffer
+ * directly. Strings are only decoded when they are read by nextName() or
+ * nextString(), skipped values are just scanned over.
+ *
+ * Readable bytes of the buffer are read, but its reader index is not moved.
+ * Comments like "//comments" and "/*comments*\/" are skipped as white spaces.
+ *
+ * @author daijun
+ */
+public class JSONReader {
+
+    public enum TOKEN {
+
+        BEGIN_OBJECT,
+        END_OBJECT,
+        BEGIN_ARRAY,
+        END_ARRAY,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END
+    }
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+    private final byte[] bytes;
+    private final int start;
+    private final int limit;
+    private int pos;
+    private int[] scopes = new int[16];
+    private int depth = 1;
+    private TOKEN peeked;
+    private char[] chars = new char[64];//Reusable buffer of decoding strings
+
+    public JSONReader(ChannelBuffer buffer) {
+        ByteBuffer nioBuffer = buffer.toByteBuffer();//Heap buffers are wrapped without copying
+        if (nioBuffer.hasArray()) {
+            this.bytes = nioBuffer.array();
+            this.start = nioBuffer.arrayOffset() + nioBuffer.position();
+        } else {
+            this.bytes = new byte[buffer.readableBytes()];
+            buffer.getBytes(buffer.readerIndex(), bytes);
+            this.start = 0;
+        }
+        this.pos = start;
+        this.limit = start + buffer.readableBytes();
+        this.scopes[0] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Returns type of the next token without consuming it.
+     *
+     * @return
+     */
+    public TOKEN peek() {
+        if (peeked != null) {
+            return peeked;
+        }
+        switch (scopes[depth - 1]) {
+            case EMPTY_DOCUMENT:
+                skipWhitespace();
+                if (pos == limit) {
+                    return peeked = TOKEN.END;
+                }
+                scopes[depth - 1] = NONEMPTY_DOCUMENT;
+                return peeked = peekValue();
+            case NONEMPTY_DOCUMENT:
+                return peeked = TOKEN.END;
+            case EMPTY_ARRAY:
+                skipWhitespace();
+                if (pos < limit && bytes[pos] == ']') {
+                    return peeked = TOKEN.END_ARRAY;
+                }
+                scopes[depth - 1] = NONEMPTY_ARRAY;
+                return peeked = peekValue();
+            case NONEMPTY_ARRAY:
+                skipWhitespace();
+                if (pos < limit && bytes[pos] == ']') {
+                    return peeked = TOKEN.END_ARRAY;
+                }
+                expect(',');
+                skipWhitespace();
+                return peeked = peekValue();
+            case DANGLING_NAME:
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                scopes[depth - 1] = NONEMPTY_OBJECT;
+                return peeked = peekValue();
+            case EMPTY_OBJECT:
+                skipWhitespace();
+                if (pos < limit && bytes[pos] == '}') {
+                    return peeked = TOKEN.END_OBJECT;
+                }
+                return peeked = peekName();
+            default:
+                skipWhitespace();
+                if (pos < limit && bytes[pos] == '}') {
+                    return peeked = TOKEN.END_OBJECT;
+                }
+                expect(',');
+                skipWhitespace();
+                return peeked = peekName();
+        }
+    }
+
+    /**
+     * Returns true if current object or array has more elements.
+     *
+     * @return
+     */
+    public boolean hasNext() {
+        TOKEN token = peek();
+        return token != TOKEN.END_OBJECT && token != TOKEN.END_ARRAY && token != TOKEN.END;
+    }
+
+    public void beginObject() {
+        consume(TOKEN.BEGIN_OBJECT);
+        pos++;
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() {
+        consume(TOKEN.END_OBJECT);
+        pos++;
+        depth--;
+    }
+
+    public void beginArray() {
+        consume(TOKEN.BEGIN_ARRAY);
+        pos++;
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() {
+        consume(TOKEN.END_ARRAY);
+        pos++;
+        depth--;
+    }
+
+    public String nextName() {
+        consume(TOKEN.NAME);
+        scopes[depth - 1] = DANGLING_NAME;
+        return readString();
+    }
+
+    /**
+     * Read a name and returns its index in the given ASCII names, or -1 if
+     * it's none of them. The name is compared as bytes, and never decoded.
+     *
+     * @param names
+     * @return
+     */
+    public int nextName(String[] names) {
+        consume(TOKEN.NAME);
+        scopes[depth - 1] = DANGLING_NAME;
+        int begin = pos + 1;
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            int end = begin + name.length();
+            if (end < limit && bytes[end] == '"' && regionMatches(begin, name)) {
+                pos = end + 1;
+                return i;
+            }
+        }
+        skipString();
+        return -1;
+    }
+
+    public String nextString() {
+        consume(TOKEN.STRING);
+        return readString();
+    }
+
+    public boolean nextBoolean() {
+        consume(TOKEN.BOOLEAN);
+        if (bytes[pos] == 't' || bytes[pos] == 'T') {
+            readLiteral("true");
+            return true;
+        }
+        readLiteral("false");
+        return false;
+    }
+
+    public void nextNull() {
+        consume(TOKEN.NULL);
+        readLiteral("null");
+    }
+
+    /**
+     * Read a number, which is a Long if it's integral, otherwise a Double.
+     *
+     * @return
+     */
+    public Number nextNumber() {
+        consume(TOKEN.NUMBER);
+        int begin = pos;
+        boolean isLong = true;
+        if (bytes[pos] == '-') {
+            pos++;
+        }
+        while (pos < limit) {
+            byte b = bytes[pos];
+            if (b >= '0' && b <= '9') {
+                pos++;
+            } else if (b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-') {
+                isLong = false;
+                pos++;
+            } else {
+                break;
+            }
+        }
+        int length = pos - begin;
+        if (length == 0 || (length == 1 && bytes[begin] == '-')) {
+            throw syntaxError("Illegal number");
+        }
+        if (isLong && length < 19) {
+            long l = 0;
+            boolean negative = bytes[begin] == '-';
+            for (int i = negative ? begin + 1 : begin; i < pos; i++) {
+                l = l * 10 + (bytes[i] - '0');
+            }
+            return negative ? -l : l;
+        }
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) bytes[begin + i];
+        }
+        String s = new String(chars, 0, length);
+        try {
+            return isLong ? (Number) Long.parseLong(s) : (Number) Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Illegal number " + s);
+        }
+    }
+
+    public long nextLong() {
+        return nextNumber().longValue();
+    }
+
+    /**
+     * Skip next value, including all nested values in it, without decoding
+     * any string.
+     */
+    public void skipValue() {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                while (hasNext()) {
+                    consume(TOKEN.NAME);
+                    scopes[depth - 1] = DANGLING_NAME;
+                    skipString();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                while (hasNext()) {
+                    skipValue();
+                }
+                endArray();
+                break;
+            case STRING:
+                consume(TOKEN.STRING);
+                skipString();
+                break;
+            case NUMBER:
+                nextNumber();
+                break;
+            case BOOLEAN:
+                nextBoolean();
+                break;
+            case NULL:
+                nextNull();
+                break;
+            default:
+                throw syntaxError("Expected a value but was " + peeked);
+        }
+    }
+
+    /**
+     * Read next value to Java object following mappings of JSONParser.
+     *
+     * @return
+     */
+    public Object readValue() {
+        switch (peek()) {
+            case BEGIN_OBJECT:
+                Map<String, Object> map = new HashMap<String, Object>();
+                beginObject();
+                while (hasNext()) {
+                    String name = nextName();
+                    map.put(name, readValue());
+                }
+                endObject();
+                return map;
+            case BEGIN_ARRAY:
+                List<Object> list = new ArrayList<Object>();
+                beginArray();
+                while (hasNext()) {
+                    list.add(readValue());
+                }
+                endArray();
+                return list.toArray();
+            case STRING:
+                return nextString();
+            case NUMBER:
+                return nextNumber();
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                nextNull();
+                return null;
+            default:
+                throw syntaxError("Expected a value but was " + peeked);
+        }
+    }
+
+    private TOKEN peekValue() {
+        if (pos == limit) {
+            throw syntaxError("Unexpected end of JSON");
+        }
+        switch (bytes[pos]) {
+            case '{':
+                return TOKEN.BEGIN_OBJECT;
+            case '[':
+                return TOKEN.BEGIN_ARRAY;
+            case '"':
+                return TOKEN.STRING;
+            case 't':
+            case 'T':
+            case 'f':
+            case 'F':
+                return TOKEN.BOOLEAN;
+            case 'n':
+            case 'N':
+                return TOKEN.NULL;
+            case '-':
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                return TOKEN.NUMBER;
+            default:
+                throw syntaxError("Unknown char '" + (char) bytes[pos] + "'");
+        }
+    }
+
+    private TOKEN peekName() {
+        if (pos == limit || bytes[pos] != '"') {
+            throw syntaxError("Expected a name");
+        }
+        return TOKEN.NAME;
+    }
+
+    private void consume(TOKEN token) {
+        if (peek() != token) {
+            throw syntaxError("Expected " + token + " but was " + peeked);
+        }
+        peeked = null;
+    }
+
+    private void expect(char c) {
+        if (pos == limit || bytes[pos] != c) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private void push(int scope) {
+        if (depth == scopes.length) {
+            int[] newScopes = new int[depth * 2];
+            System.arraycopy(scopes, 0, newScopes, 0, depth);
+            scopes = newScopes;
+        }
+        scopes[depth++] = scope;
+    }
+
+    /**
+     * Read a literal, like true, false and null, case insensitively.
+     *
+     * @param literal
+     */
+    private void readLiteral(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (pos == limit || Character.toLowerCase((char) bytes[pos]) != literal.charAt(i)) {
+                throw syntaxError("Expected " + literal);
+            }
+            pos++;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < limit) {
+            byte b = bytes[pos];
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+                pos++;
+            } else if (b == '/' && pos + 1 < limit && bytes[pos + 1] == '/') {
+                while (pos < limit && bytes[pos] != '\n') {
+                    pos++;
+                }
+            } else if (b == '/' && pos + 1 < limit && bytes[pos + 1] == '*') {
+                pos += 3;
+                while (pos < limit && !(bytes[pos - 1] == '*' && bytes[pos] == '/')) {
+                    pos++;
+                }
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (pos > limit) {
+            pos = limit;
+        }
+    }
+
+    private boolean regionMatches(int begin, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (bytes[begin + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skip a string starting at current position.
+     */
+    private void skipString() {
+        pos++;
+        while (pos < limit) {
+            byte b = bytes[pos++];
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                pos++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * Decode a UTF-8 string starting at current position, with escapes.
+     *
+     * @return
+     */
+    private String readString() {
+        pos++;
+        int length = 0;
+        while (pos < limit) {
+            ensureCapacity(length + 2);
+            int b = bytes[pos++];
+            if (b == '"') {
+                return new String(chars, 0, length);
+            } else if (b == '\\') {
+                chars[length++] = readEscaped();
+            } else if (b >= 0) {
+                chars[length++] = (char) b;
+            } else if ((b & 0xe0) == 0xc0) {
+                chars[length++] = (char) (((b & 0x1f) << 6) | continuation());
+            } else if ((b & 0xf0) == 0xe0) {
+                chars[length++] = (char) (((b & 0x0f) << 12) | (continuation() << 6) | continuation());
+            } else if ((b & 0xf8) == 0xf0) {
+                int codePoint = ((b & 0x07) << 18) | (continuation() << 12) | (continuation() << 6) | continuation();
+                length += Character.toChars(codePoint, chars, length);
+            } else {
+                throw syntaxError("Illegal UTF-8 byte");
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private int continuation() {
+        if (pos == limit || (bytes[pos] & 0xc0) != 0x80) {
+            throw syntaxError("Illegal UTF-8 byte");
+        }
+        return bytes[pos++] & 0x3f;
+    }
+
+    private char readEscaped() {
+        if (pos == limit) {
+            throw syntaxError("Unterminated string");
+        }
+        byte b = bytes[pos++];
+        switch (b) {
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'u':
+                if (pos + 4 > limit) {
+                    throw syntaxError("Unterminated escape");
+                }
+                int c = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit((char) bytes[pos++], 16);
+                    if (digit < 0) {
+                        throw syntaxError("Illegal escape");
+                    }
+                    c = (c << 4) | digit;
+                }
+                return (char) c;
+            default:
+                return (char) b;
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if (length > chars.length) {
+            char[] newChars = new char[Math.max(length, chars.length * 2)];
+            System.arraycopy(chars, 0, newChars, 0, chars.length);
+            chars = newChars;
+        }
+    }
+
+    private IllegalStateException syntaxError(String message) {
+        return new IllegalStateException(message + " at position " + (pos - start));
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * A streaming JSON writer, which writes names and values straight into a
+ * ChannelBuffer in UTF-8, without building any intermediate String.
+ *
+ * Java objects are mapped to JSON the same as JSONParser.toJSON(Object) does.
+ * Values which have been encoded before, like a shared DeliverEvent, can be
+ * written by encoded(ChannelBuffer) without copying them, then the result is
+ * a composite buffer.
+ *
+ * @author daijun
+ */
+public class JSONWriter {
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private final ChannelBuffer buffer;
+    private final byte[] digits = new byte[20];
+    private boolean[] hasValue = new boolean[16];// Whether current object or array already has a value
+    private int depth = 0;
+    private boolean isNamed = false;// A name is written, and is waiting for its value
+    private List<ChannelBuffer> parts;// Buffers composing the result, if encoded buffers were written
+    private int partStart = 0;
+
+    public JSONWriter() {
+        this(ChannelBuffers.dynamicBuffer(256));
+    }
+
+    public JSONWriter(ChannelBuffer buffer) {
+        this.buffer = buffer;
+        this.partStart = buffer.writerIndex();
+    }
+
+    /**
+     * Returns the written JSON.
+     *
+     * @return
+     */
+    public ChannelBuffer getBuffer() {
+        if (parts == null) {
+            return buffer;
+        }
+        cut();
+        return ChannelBuffers.wrappedBuffer(parts.toArray(new ChannelBuffer[parts.size()]));
+    }
+
+    /**
+     * Returns buffers composing the written JSON in order. Buffers written by
+     * encoded(ChannelBuffer) are the same instances among them.
+     *
+     * @return
+     */
+    public List<ChannelBuffer> getParts() {
+        if (parts == null) {
+            return Collections.singletonList(buffer);
+        }
+        cut();
+        return new ArrayList<ChannelBuffer>(parts);
+    }
+
+    /**
+     * Returns the written JSON as a String.
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        return getBuffer().toString("UTF-8");
+    }
+
+    public JSONWriter beginObject() {
+        beforeValue();
+        buffer.writeByte((byte) '{');
+        push();
+        return this;
+    }
+
+    public JSONWriter endObject() {
+        depth--;
+        buffer.writeByte((byte) '}');
+        return this;
+    }
+
+    public JSONWriter beginArray() {
+        beforeValue();
+        buffer.writeByte((byte) '[');
+        push();
+        return this;
+    }
+
+    public JSONWriter endArray() {
+        depth--;
+        buffer.writeByte((byte) ']');
+        return this;
+    }
+
+    /**
+     * Write name of an object property, which should be followed by its value.
+     *
+     * @param name
+     * @return
+     */
+    public JSONWriter name(String name) {
+        beforeValue();
+        writeString(name);
+        buffer.writeByte((byte) ':');
+        isNamed = true;
+        return this;
+    }
+
+    /**
+     * Write a Java object as JSON value.
+     *
+     * @param obj
+     * @return
+     */
+    public JSONWriter value(Object obj) {
+        if (obj == null) {
+            beforeValue();
+            buffer.writeBytes(NULL);
+        } else if (obj instanceof String) {
+            value((String) obj);
+        } else if (obj instanceof Boolean) {
+            value(((Boolean) obj).booleanValue());
+        } else if (obj instanceof Long || obj instanceof Integer) {
+            value(((Number) obj).longValue());
+        } else if (obj instanceof Float || obj instanceof Double) {
+            beforeValue();
+            writeAscii(String.valueOf(obj));
+        } else if (obj instanceof Map) {
+            beginObject();
+            for (Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+                name(String.valueOf(entry.getKey()));
+                value(entry.getValue());
+            }
+            endObject();
+        } else if (obj instanceof Collection) {
+            beginArray();
+            for (Object o : (Collection) obj) {
+                value(o);
+            }
+            endArray();
+        } else if (obj instanceof Object[]) {
+            beginArray();
+            for (Object o : (Object[]) obj) {
+                value(o);
+            }
+            endArray();
+        } else if (obj instanceof BayeuxInterface) {
+            ((BayeuxInterface) obj).writeTo(this);
+        } else if (obj instanceof BayeuxConnection.TYPE) {
+            value(BayeuxConnection.getValueOfType((BayeuxConnection.TYPE) obj));
+        } else {
+            value(obj.toString());
+        }
+        return this;
+    }
+
+    public JSONWriter value(String s) {
+        beforeValue();
+        if (s == null) {
+            buffer.writeBytes(NULL);
+        } else {
+            writeString(s);
+        }
+        return this;
+    }
+
+    public JSONWriter value(boolean b) {
+        beforeValue();
+        buffer.writeBytes(b ? TRUE : FALSE);
+        return this;
+    }
+
+    public JSONWriter value(long l) {
+        beforeValue();
+        if (l == Long.MIN_VALUE) {
+            writeAscii(String.valueOf(l));
+            return this;
+        }
+        if (l < 0) {
+            buffer.writeByte((byte) '-');
+            l = -l;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (byte) ('0' + (l % 10));
+            l /= 10;
+        } while (l != 0);
+        buffer.writeBytes(digits, i, digits.length - i);
+        return this;
+    }
+
+    /**
+     * Write a value which is JSON encoded already. The buffer is not copied,
+     * so it must not be modified later.
+     *
+     * @param encoded
+     * @return
+     */
+    public JSONWriter encoded(ChannelBuffer encoded) {
+        beforeValue();
+        if (parts == null) {
+            parts = new ArrayList<ChannelBuffer>();
+        }
+        cut();
+        parts.add(encoded);
+        return this;
+    }
+
+    /**
+     * Write a string as it is, without quoting or escaping, like a JSONP
+     * callback name.
+     *
+     * @param s
+     * @return
+     */
+    public JSONWriter raw(String s) {
+        writeUtf8(s, false);
+        return this;
+    }
+
+    /**
+     * Write a comma if current object or array already has a value.
+     */
+    private void beforeValue() {
+        if (isNamed) {
+            isNamed = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasValue[depth - 1]) {
+                buffer.writeByte((byte) ',');
+            }
+            hasValue[depth - 1] = true;
+        }
+    }
+
+    private void push() {
+        if (depth == hasValue.length) {
+            boolean[] newHasValue = new boolean[depth * 2];
+            System.arraycopy(hasValue, 0, newHasValue, 0, depth);
+            hasValue = newHasValue;
+        }
+        hasValue[depth++] = false;
+    }
+
+    /**
+     * Move bytes written into own buffer since last cut to the parts.
+     */
+    private void cut() {
+        int end = buffer.writerIndex();
+        if (end > partStart) {
+            parts.add(buffer.slice(partStart, end - partStart));
+            partStart = end;
+        }
+    }
+
+    private void writeString(String s) {
+        buffer.writeByte((byte) '"');
+        writeUtf8(s, true);
+        buffer.writeByte((byte) '"');
+    }
+
+    private void writeAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer.writeByte((byte) s.charAt(i));
+        }
+    }
+
+    private void writeUtf8(String s, boolean escape) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (escape && (c < 0x20 || c == '"' || c == '\\')) {
+                    writeEscaped(c);
+                } else {
+                    buffer.writeByte((byte) c);
+                }
+            } else if (c < 0x800) {
+                buffer.writeByte((byte) (0xc0 | (c >> 6)));
+                buffer.writeByte((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer.writeByte((byte) (0xf0 | (codePoint >> 18)));
+                buffer.writeByte((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                buffer.writeByte((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                buffer.writeByte((byte) (0x80 | (codePoint & 0x3f)));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                buffer.writeByte((byte) '?');
+            } else {
+                buffer.writeByte((byte) (0xe0 | (c >> 12)));
+                buffer.writeByte((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.writeByte((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
+    private void writeEscaped(char c) {
+        buffer.writeByte((byte) '\\');
+        switch (c) {
+            case '"':
+                buffer.writeByte((byte) '"');
+                break;
+            case '\\':
+                buffer.writeByte((byte) '\\');
+                break;
+            case '\n':
+                buffer.writeByte((byte) 'n');
+                break;
+            case '\r':
+                buffer.writeByte((byte) 'r');
+                break;
+            case '\t':
+                buffer.writeByte((byte) 't');
+                break;
+            case '\b':
+                buffer.writeByte((byte) 'b');
+                break;
+            case '\f':
+                buffer.writeByte((byte) 'f');
+                break;
+            default:
+                buffer.writeByte((byte) 'u');
+                buffer.writeByte((byte) '0');
+                buffer.writeByte((byte) '0');
+                buffer.writeByte(HEX[c >> 4]);
+                buffer.writeByte(HEX[c & 0xf]);
+        }
+    }
+}
@@ -15,7 +15,6 @@
  */
 package org.jboss.netty.handler.codec.bayeux;
 
-import java.util.regex.Pattern;
 
 /**
  * A Bayeux <a href="http://svn.cometd.org/trunk/bayeux/bayeux.html#toc_65">Publish Request</a>
@@ -27,6 +26,12 @@ import java.util.regex.Pattern;
  */
 public class PublishRequest extends BayeuxMessage implements BayeuxInterface {
 
+    /**
+     * Create an empty request, which BayeuxMessageFactory binds JSON to.
+     */
+    PublishRequest() {
+    }
+
     public PublishRequest(BayeuxMessage bayeux) {
         super(bayeux);
         this.data = bayeux.data;
@@ -38,7 +43,8 @@ public class PublishRequest extends BayeuxMessage implements BayeuxInterface {
     }
 
     public static boolean isValid(BayeuxMessage bayeux) {
-        if ("/meta".equals(bayeux.channel) || Pattern.matches("/meta/.*", bayeux.channel) || !bayeux.channel.matches("/.+")) {
+        ChannelId channelId = ChannelId.of(bayeux.channel);
+        if (channelId == null || !channelId.isValid() || channelId.isMeta()) {
             return false;
         }
         if (bayeux.data == null) {
@@ -15,13 +15,12 @@
  */
 package org.jboss.netty.handler.codec.bayeux;
 
-import java.util.regex.Pattern;
 
 /**
  * A Bayeux <a href="http://svn.cometd.org/trunk/bayeux/bayeux.html#toc_66">Publish Response</a>
  *
  * Required properties: channel, successful
- * Optional properties: clientId, id, error, ext
+ * Optional properties: clientId, id, error, advice, ext
  * 
  * @author daijun
  */
@@ -39,7 +38,8 @@ public class PublishResponse extends BayeuxMessage implements BayeuxInterface {
     }
 
     public static boolean isValid(BayeuxMessage bayeux) {
-        if ("/meta".equals(bayeux.channel) || Pattern.matches("/meta/.*", bayeux.channel) || !bayeux.channel.matches("/.+")) {
+        ChannelId channelId = ChannelId.of(bayeux.channel);
+        if (channelId == null || !channelId.isValid() || channelId.isMeta()) {
             return false;
         }
         if (bayeux.successful == null) {
@@ -54,6 +54,14 @@ public class PublishResponse extends BayeuxMessage implements BayeuxInterface {
         return isValid(this);
     }
 
+    public BayeuxAdvice getAdvice() {
+        return advice;
+    }
+
+    public void setAdvice(BayeuxAdvice advice) {
+        this.advice = advice;
+    }
+
     public String getChannel() {
         return channel;
     }
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * The default id generator, which makes ids of an optional prefix, like a
+ * node name, 4 HEX chars of the tag and 32 HEX chars of random bits.
+ *
+ * Every thread has its own SHA1PRNG, seeded from a shared SecureRandom once,
+ * so generating ids never contends on a lock, while they're still as
+ * unguessable as ones of SecureRandom.
+ *
+ * @author daijun
+ */
+public class RandomIdGenerator implements BayeuxIdGenerator {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int RANDOM_BYTES = 16;
+    private static final SecureRandom seeds = new SecureRandom();
+    private static final ThreadLocal<SecureRandom> randoms = new ThreadLocal<SecureRandom>() {
+
+        @Override
+        protected SecureRandom initialValue() {
+            byte[] seed = new byte[32];
+            synchronized (seeds) {
+                seeds.nextBytes(seed);
+            }
+            SecureRandom random;
+            try {
+                random = SecureRandom.getInstance("SHA1PRNG");
+            } catch (NoSuchAlgorithmException e) {
+                random = new SecureRandom();
+            }
+            random.setSeed(seed);
+            return random;
+        }
+    };
+    private final String prefix;
+
+    public RandomIdGenerator() {
+        this("");
+    }
+
+    /**
+     * Create a generator starting ids with the given prefix, like a node
+     * name of a cluster.
+     *
+     * @param prefix
+     */
+    public RandomIdGenerator(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    @Override
+    public String generateId(int tag) {
+        if (tag < 0 || tag > 0xffff) {
+            throw new IllegalArgumentException("tag: " + tag);
+        }
+        byte[] bytes = new byte[RANDOM_BYTES];
+        randoms.get().nextBytes(bytes);
+        int length = prefix.length();
+        char[] chars = new char[length + 4 + RANDOM_BYTES * 2];
+        prefix.getChars(0, length, chars, 0);
+        for (int i = 3; i >= 0; i--) {
+            chars[length + i] = HEX[tag & 0xf];
+            tag >>>= 4;
+        }
+        int offset = length + 4;
+        for (byte b : bytes) {
+            chars[offset++] = HEX[(b >>> 4) & 0xf];
+            chars[offset++] = HEX[b & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the tag read from the 4 HEX digits following the prefix. An id
+     * is the prefix, the tag in 4 HEX digits, then 32 HEX digits of random
+     * bytes. ShardedBayeuxRouter.shardOf() finds the shard of a client by the
+     * tag, so changing the layout strands clients of a running router.
+     *
+     * @param id
+     * @return
+     */
+    @Override
+    public int tagOf(String id) {
+        int length = prefix.length();
+        if (id == null || id.length() != length + 4 + RANDOM_BYTES * 2 || !id.startsWith(prefix)) {
+            return -1;
+        }
+        int tag = 0;
+        for (int i = length; i < length + 4; i++) {
+            int digit = Character.digit(id.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            tag = (tag << 4) | digit;
+        }
+        return tag;
+    }
+}
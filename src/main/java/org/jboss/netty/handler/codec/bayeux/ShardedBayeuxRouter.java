@@ -0,0 +1,243 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A router partitioning its clients across several router shards by client id.
+ * Each shard holds connections and subscriptions of its own clients, so that
+ * handshake, connect and subscribe traffic of different clients rarely touch
+ * the same maps and locks. Publishing reaches subscribers of all shards.
+ *
+ * It's used the same as BayeuxRouter, and connections only see this router,
+ * never its shards.
+ *
+ * New clients are spread over shards in turn, and each client id carries
+ * the number of its shard as the tag of BayeuxIdGenerator, so finding the
+ * shard of a client is parsing its id. Ids without a valid tag, like ones of
+ * another generator, are hashed instead.
+ *
+ * A subscription may have listeners in several shards, so the number of
+ * shards listening to each subscription is counted, and only the first and
+ * the last one are passed to the cluster.
+ *
+ * @author daijun
+ */
+public class ShardedBayeuxRouter extends BayeuxRouter {
+
+    private final BayeuxRouter[] shards;
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final Map<String, Integer> interests = new HashMap<String, Integer>();//Number of shards listening to each subscription
+
+    /**
+     * Create a router with one shard per available processor.
+     */
+    public ShardedBayeuxRouter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a router with given number of shards.
+     *
+     * @param count
+     */
+    public ShardedBayeuxRouter(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("count: " + count);
+        }
+        shards = new BayeuxRouter[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * Returns the shard holding a client, by the tag of its id, which
+     * RandomIdGenerator keeps in 4 HEX digits after the prefix. Ids without a
+     * valid tag are hashed instead.
+     *
+     * @param clientId
+     * @return
+     */
+    protected BayeuxRouter shardOf(String clientId) {
+        int tag = getIdGenerator().tagOf(clientId);
+        if (tag >= 0 && tag < shards.length) {
+            return shards[tag];
+        }
+        int hash = clientId.hashCode();
+        hash ^= (hash >>> 16);
+        return shards[(hash & 0x7fffffff) % shards.length];
+    }
+
+    @Override
+    protected int nextTag() {
+        return (nextShard.getAndIncrement() & 0x7fffffff) % shards.length;
+    }
+
+    /**
+     * Returns number of shards.
+     *
+     * @return
+     */
+    public int countShards() {
+        return shards.length;
+    }
+
+    @Override
+    public BayeuxConnection getConnection(String clientId) {
+        if (clientId == null) {
+            return null;
+        }
+        return shardOf(clientId).getConnection(clientId);
+    }
+
+    @Override
+    public void clear() {
+        for (BayeuxRouter shard : shards) {
+            shard.clear();
+        }
+    }
+
+    @Override
+    protected boolean putConnection(String clientId, BayeuxConnection connection) {
+        return shardOf(clientId).putConnection(clientId, connection);
+    }
+
+    @Override
+    public boolean removeConnection(BayeuxConnection connection) {
+        String clientId = connection.getClientId();
+        if (clientId == null) {
+            return false;
+        }
+        return shardOf(clientId).removeConnection(connection);
+    }
+
+    @Override
+    public boolean addListener(String subscription, BayeuxConnection connection) {
+        return shardOf(connection.getClientId()).addListener(subscription, connection);
+    }
+
+    @Override
+    public boolean removeListener(String subscription, BayeuxConnection connection) {
+        return shardOf(connection.getClientId()).removeListener(subscription, connection);
+    }
+
+    @Override
+    protected void subscribed(String subscription) {
+        synchronized (interests) {
+            Integer count = interests.get(subscription);
+            interests.put(subscription, count == null ? 1 : count + 1);
+            if (count == null) {
+                super.subscribed(subscription);
+            }
+        }
+    }
+
+    @Override
+    protected void unsubscribed(String subscription) {
+        synchronized (interests) {
+            Integer count = interests.get(subscription);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                interests.put(subscription, count - 1);
+            } else {
+                interests.remove(subscription);
+                super.unsubscribed(subscription);
+            }
+        }
+    }
+
+    @Override
+    protected Set<BayeuxConnection> match(String channel) {
+        Set<BayeuxConnection> matched = new LinkedHashSet<BayeuxConnection>();
+        for (BayeuxRouter shard : shards) {
+            matched.addAll(shard.match(channel));
+        }
+        return matched;
+    }
+
+    @Override
+    public int countConnections() {
+        int count = 0;
+        for (BayeuxRouter shard : shards) {
+            count += shard.countConnections();
+        }
+        return count;
+    }
+
+    /**
+     * Returns a snapshot of the connections in all shards.
+     *
+     * @return
+     */
+    @Override
+    public Map<String, BayeuxConnection> getConnections() {
+        Map<String, BayeuxConnection> connections = new HashMap<String, BayeuxConnection>();
+        for (BayeuxRouter shard : shards) {
+            connections.putAll(shard.getConnections());
+        }
+        return Collections.unmodifiableMap(connections);
+    }
+
+    /**
+     * Returns a snapshot of the subscription relationships in all shards.
+     *
+     * @return
+     */
+    @Override
+    public Map<String, List<BayeuxConnection>> getSubscriptions() {
+        Map<String, List<BayeuxConnection>> subscriptions = new HashMap<String, List<BayeuxConnection>>();
+        for (BayeuxRouter shard : shards) {
+            for (Entry<String, List<BayeuxConnection>> entry : shard.getSubscriptions().entrySet()) {
+                List<BayeuxConnection> listeners = subscriptions.get(entry.getKey());
+                if (listeners == null) {
+                    listeners = new ArrayList<BayeuxConnection>();
+                    subscriptions.put(entry.getKey(), listeners);
+                }
+                listeners.addAll(entry.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(subscriptions);
+    }
+
+    /**
+     * A shard reporting its first and last listeners of subscriptions to
+     * the sharded router.
+     */
+    private class Shard extends BayeuxRouter {
+
+        @Override
+        protected void subscribed(String subscription) {
+            ShardedBayeuxRouter.this.subscribed(subscription);
+        }
+
+        @Override
+        protected void unsubscribed(String subscription) {
+            ShardedBayeuxRouter.this.unsubscribed(subscription);
+        }
+    }
+}
@@ -25,6 +25,12 @@ package org.jboss.netty.handler.codec.bayeux;
  */
 public class SubscribeRequest extends BayeuxMessage implements BayeuxInterface {
 
+    /**
+     * Create an empty request, which BayeuxMessageFactory binds JSON to.
+     */
+    SubscribeRequest() {
+    }
+
     public SubscribeRequest(BayeuxMessage bayeux) {
         super(bayeux);
         this.channel = "/meta/subscribe";
@@ -41,7 +47,8 @@ public class SubscribeRequest extends BayeuxMessage implements BayeuxInterface {
         if (!bayeux.channel.equals("/meta/subscribe")) {
             return false;
         }
-        if (bayeux.subscription == null || bayeux.subscription.length() == 0) {
+        ChannelId subscriptionId = ChannelId.of(bayeux.subscription);
+        if (subscriptionId == null || !subscriptionId.isValid()) {
             return false;
         }
         if (bayeux.clientId == null || bayeux.clientId.length() == 0) {
@@ -94,6 +101,15 @@ public class SubscribeRequest extends BayeuxMessage implements BayeuxInterface {
         return subscription;
     }
 
+    /**
+     * Returns the parsed subscription, or null if it's not set.
+     *
+     * @return
+     */
+    public ChannelId getSubscriptionId() {
+        return ChannelId.of(subscription);
+    }
+
     public void setSubscription(String subscription) {
         this.subscription = subscription;
     }
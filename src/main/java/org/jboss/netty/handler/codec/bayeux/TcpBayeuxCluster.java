@@ -0,0 +1,449 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineCoverage;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+import org.jboss.netty.logging.InternalLogger;
+import org.jboss.netty.logging.InternalLoggerFactory;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * A reference cluster connecting nodes by TCP. Each node listens on its own
+ * address and keeps one connection to every peer, which it only writes to.
+ * A node may be told of some of its peers only, since every node connects
+ * back to a peer saying hello to it.
+ *
+ * Frames are prefixed with their length and start with a type byte, HELLO
+ * carries the listening address of the sender, SUBSCRIBE and UNSUBSCRIBE a
+ * subscription, and PUBLISH a deliver event in JSON. Subscriptions of each
+ * peer are indexed by a channel trie, so publishing only writes to the peers
+ * having subscribers of its channel.
+ *
+ * On connecting, a node sends all its subscriptions again. When a peer's
+ * connection is closed, its subscriptions are forgotten, and connecting to
+ * it is retried every second until the cluster is released.
+ *
+ * It's meant for tests and trusted networks, like several routers in one
+ * process or on a LAN. Nodes should listen on addresses reachable by peers.
+ *
+ * @author daijun
+ */
+public class TcpBayeuxCluster implements BayeuxCluster {
+
+    private static final InternalLogger logger =
+            InternalLoggerFactory.getInstance(TcpBayeuxCluster.class.getName());
+    private static final byte HELLO = 'H';
+    private static final byte SUBSCRIBE = 'S';
+    private static final byte UNSUBSCRIBE = 'U';
+    private static final byte PUBLISH = 'P';
+    private static final int MAX_FRAME_LENGTH = 1048576;
+    private static final long RECONNECT_DELAY = 1000;//Milliseconds to wait before connecting to a lost peer
+    private final InetSocketAddress localAddress;
+    private final ChannelFactory serverFactory;
+    private final ChannelFactory clientFactory;
+    private final ChannelGroup channels = new DefaultChannelGroup("bayeux-cluster");
+    private final Set<String> subscriptions = new CopyOnWriteArraySet<String>();
+    private final ConcurrentMap<String, Peer> peers = new ConcurrentHashMap<String, Peer>();
+    private final Map<String, Set<Peer>> interests = new HashMap<String, Set<Peer>>();
+    private final ChannelTrie<Peer> interestIndex = new ChannelTrie<Peer>();
+    private final AtomicLong forwarded = new AtomicLong();
+    private volatile BayeuxRouter router;
+    private volatile InetSocketAddress boundAddress;
+    private volatile String nodeId;
+    private volatile boolean released;
+
+    /**
+     * Create a cluster listening on an ephemeral port of the loopback
+     * address.
+     */
+    public TcpBayeuxCluster() {
+        this(new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    /**
+     * Create a cluster listening on the given address.
+     *
+     * @param localAddress
+     */
+    public TcpBayeuxCluster(InetSocketAddress localAddress) {
+        this.localAddress = localAddress;
+        this.serverFactory = new NioServerSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
+        this.clientFactory = new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
+    }
+
+    /**
+     * Start listening to peers.
+     *
+     * @param router
+     */
+    @Override
+    public void join(BayeuxRouter router) {
+        if (this.router != null) {
+            throw new IllegalStateException("Joined already");
+        }
+        this.router = router;
+        ServerBootstrap bootstrap = new ServerBootstrap(serverFactory);
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                ChannelPipeline pipeline = Channels.pipeline();
+                pipeline.addLast("frameDecoder", new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 0, 4, 0, 4));
+                pipeline.addLast("handler", new InboundHandler());
+                return pipeline;
+            }
+        });
+        bootstrap.setOption("child.tcpNoDelay", true);
+        bootstrap.setOption("reuseAddress", true);
+        Channel serverChannel = bootstrap.bind(localAddress);
+        channels.add(serverChannel);
+        boundAddress = (InetSocketAddress) serverChannel.getLocalAddress();
+        nodeId = toId(boundAddress);
+    }
+
+    /**
+     * Returns the address listened to, after joining.
+     *
+     * @return
+     */
+    public InetSocketAddress getLocalAddress() {
+        return boundAddress;
+    }
+
+    /**
+     * Connect to a peer. It should be called after joining.
+     *
+     * @param address
+     */
+    public void addPeer(InetSocketAddress address) {
+        if (router == null) {
+            throw new IllegalStateException("Not joined yet");
+        }
+        String id = toId(address);
+        if (id.equals(nodeId)) {
+            return;
+        }
+        Peer peer = new Peer(address);
+        if (peers.putIfAbsent(id, peer) == null) {
+            connect(peer);
+        }
+    }
+
+    /**
+     * Returns number of peers having subscribers of a channel.
+     *
+     * @param channel
+     * @return
+     */
+    public int countInterestedPeers(String channel) {
+        return interestIndex.match(channel).size();
+    }
+
+    /**
+     * Returns number of messages written to peers.
+     *
+     * @return
+     */
+    public long countForwarded() {
+        return forwarded.get();
+    }
+
+    @Override
+    public void subscribe(String subscription) {
+        subscriptions.add(subscription);
+        broadcast(SUBSCRIBE, subscription);
+    }
+
+    @Override
+    public void unsubscribe(String subscription) {
+        subscriptions.remove(subscription);
+        broadcast(UNSUBSCRIBE, subscription);
+    }
+
+    @Override
+    public void publish(DeliverEvent deliver) {
+        Set<Peer> matched = interestIndex.match(deliver.getChannel());
+        if (matched.isEmpty()) {
+            return;
+        }
+        ChannelBuffer frame = ChannelBuffers.wrappedBuffer(
+                ChannelBuffers.wrappedBuffer(new byte[]{PUBLISH}), deliver.getEncoded());
+        for (Peer peer : matched) {
+            Channel channel = peer.channel;
+            if (channel != null) {
+                channel.write(frame.duplicate());
+                forwarded.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Close all connections and stop their threads.
+     */
+    @Override
+    public void releaseExternalResources() {
+        released = true;
+        channels.close().awaitUninterruptibly();
+        serverFactory.releaseExternalResources();
+        clientFactory.releaseExternalResources();
+    }
+
+    private void broadcast(byte type, String subscription) {
+        for (Peer peer : peers.values()) {
+            synchronized (peer) {
+                Channel channel = peer.channel;
+                if (channel != null) {
+                    channel.write(createFrame(type, subscription));
+                }
+            }
+        }
+    }
+
+    private void connect(final Peer peer) {
+        ClientBootstrap bootstrap = new ClientBootstrap(clientFactory);
+        ChannelPipeline pipeline = bootstrap.getPipeline();
+        pipeline.addLast("frameEncoder", new LengthFieldPrepender(4));
+        pipeline.addLast("handler", new OutboundHandler(peer));
+        bootstrap.setOption("tcpNoDelay", true);
+        bootstrap.connect(peer.address).addListener(new ChannelFutureListener() {
+
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if (!future.isSuccess()) {
+                    reconnect(peer);
+                    return;
+                }
+                Channel channel = future.getChannel();
+                channels.add(channel);
+                synchronized (peer) {
+                    channel.write(createFrame(HELLO, nodeId));
+                    for (String subscription : subscriptions) {
+                        channel.write(createFrame(SUBSCRIBE, subscription));
+                    }
+                    peer.channel = channel;
+                }
+            }
+        });
+    }
+
+    private void reconnect(final Peer peer) {
+        if (released) {
+            return;
+        }
+        router.getTimer().newTimeout(new TimerTask() {
+
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                if (!released) {
+                    connect(peer);
+                }
+            }
+        }, RECONNECT_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the peer saying hello with its id, adding it if it's unknown.
+     *
+     * @param id
+     * @return
+     */
+    private Peer helloFrom(String id) {
+        Peer peer = peers.get(id);
+        if (peer == null) {
+            int colon = id.lastIndexOf(':');
+            addPeer(new InetSocketAddress(id.substring(0, colon), Integer.parseInt(id.substring(colon + 1))));
+            peer = peers.get(id);
+        }
+        return peer;
+    }
+
+    private void addInterest(String subscription, Peer peer) {
+        synchronized (interests) {
+            Set<Peer> listeners = interests.get(subscription);
+            if (listeners == null) {
+                listeners = new CopyOnWriteArraySet<Peer>();
+                interests.put(subscription, listeners);
+                interestIndex.put(subscription, listeners);
+            }
+            listeners.add(peer);
+        }
+    }
+
+    private void removeInterest(String subscription, Peer peer) {
+        synchronized (interests) {
+            Set<Peer> listeners = interests.get(subscription);
+            if (listeners != null && listeners.remove(peer) && listeners.isEmpty()) {
+                interests.remove(subscription);
+                interestIndex.remove(subscription);
+            }
+        }
+    }
+
+    private void removeInterests(Peer peer) {
+        synchronized (interests) {
+            for (String subscription : new ArrayList<String>(interests.keySet())) {
+                removeInterest(subscription, peer);
+            }
+        }
+    }
+
+    private static ChannelBuffer createFrame(byte type, String text) {
+        return ChannelBuffers.wrappedBuffer(
+                ChannelBuffers.wrappedBuffer(new byte[]{type}),
+                ChannelBuffers.copiedBuffer(text, "UTF-8"));
+    }
+
+    private static String toId(InetSocketAddress address) {
+        return address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    /**
+     * A node of the cluster, with the connection written to it, and the
+     * connection it writes to this node.
+     */
+    private static class Peer {
+
+        private final InetSocketAddress address;
+        private volatile Channel channel;
+        private volatile Channel inbound;
+
+        private Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+    }
+
+    /**
+     * Reads frames of a peer, which is known after its HELLO.
+     */
+    @ChannelPipelineCoverage("one")
+    private class InboundHandler extends SimpleChannelUpstreamHandler {
+
+        private Peer peer;
+
+        @Override
+        public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            channels.add(e.getChannel());
+            super.channelOpen(ctx, e);
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            ChannelBuffer frame = (ChannelBuffer) e.getMessage();
+            byte type = frame.readByte();
+            if (type == HELLO) {
+                peer = helloFrom(frame.toString("UTF-8"));
+                peer.inbound = e.getChannel();
+            } else if (peer == null) {
+                logger.warn("Closing a peer without HELLO");
+                e.getChannel().close();
+            } else if (type == SUBSCRIBE) {
+                addInterest(frame.toString("UTF-8"), peer);
+            } else if (type == UNSUBSCRIBE) {
+                removeInterest(frame.toString("UTF-8"), peer);
+            } else if (type == PUBLISH) {
+                for (DeliverEvent deliver : DeliverEvent.decode(frame)) {
+                    router.receive(deliver);
+                }
+            }
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            if (peer != null && peer.inbound == e.getChannel()) {
+                removeInterests(peer);
+            }
+            super.channelClosed(ctx, e);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+            logger.warn("Failed to read from peer", e.getCause());
+            e.getChannel().close();
+        }
+    }
+
+    /**
+     * Watches the connection to a peer, to connect again when it's lost.
+     */
+    @ChannelPipelineCoverage("one")
+    private class OutboundHandler extends SimpleChannelUpstreamHandler {
+
+        private final Peer peer;
+
+        private OutboundHandler(Peer peer) {
+            this.peer = peer;
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            boolean lost = false;
+            synchronized (peer) {
+                if (peer.channel == e.getChannel()) {
+                    peer.channel = null;
+                    lost = true;
+                }
+            }
+            if (lost) {
+                reconnect(peer);
+            }
+            super.channelClosed(ctx, e);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Failed to write to peer " + peer.address, e.getCause());
+            }
+            e.getChannel().close();
+        }
+    }
+}
@@ -25,6 +25,12 @@ package org.jboss.netty.handler.codec.bayeux;
  */
 public class UnsubscribeRequest extends BayeuxMessage implements BayeuxInterface {
 
+    /**
+     * Create an empty request, which BayeuxMessageFactory binds JSON to.
+     */
+    UnsubscribeRequest() {
+    }
+
     public UnsubscribeRequest(BayeuxMessage bayeux) {
         super(bayeux);
         this.channel = "/meta/unsubscribe";
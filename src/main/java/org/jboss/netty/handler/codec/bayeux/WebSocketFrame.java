@@ -0,0 +1,93 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * A WebSocket frame of RFC 6455, which is decoded by WebSocketFrameDecoder
+ * and encoded by WebSocketFrameEncoder. Fragmented messages are joined by the
+ * decoder, so a frame always carries a whole message.
+ *
+ * A text frame carries a batch of Bayeux messages in JSON, both from client
+ * and to client.
+ *
+ * @author daijun
+ */
+public class WebSocketFrame {
+
+    public enum OPCODE {
+
+        CONTINUATION(0x0),
+        TEXT(0x1),
+        BINARY(0x2),
+        CLOSE(0x8),
+        PING(0x9),
+        PONG(0xA);
+        private final int value;
+
+        private OPCODE(int value) {
+            this.value = value;
+        }
+
+        public int getValue() {
+            return value;
+        }
+
+        public boolean isControl() {
+            return (value & 0x8) != 0;
+        }
+
+        public static OPCODE valueOf(int value) {
+            for (OPCODE opcode : values()) {
+                if (opcode.value == value) {
+                    return opcode;
+                }
+            }
+            return null;
+        }
+    }
+    private final OPCODE opcode;
+    private final ChannelBuffer content;
+
+    /**
+     * Create a text frame.
+     *
+     * @param content UTF-8 text
+     */
+    public WebSocketFrame(ChannelBuffer content) {
+        this(OPCODE.TEXT, content);
+    }
+
+    public WebSocketFrame(OPCODE opcode, ChannelBuffer content) {
+        this.opcode = opcode;
+        this.content = content == null ? ChannelBuffers.EMPTY_BUFFER : content;
+    }
+
+    public OPCODE getOpcode() {
+        return opcode;
+    }
+
+    public ChannelBuffer getContent() {
+        return content;
+    }
+
+    @Override
+    public String toString() {
+        return opcode + "(" + content.readableBytes() + " bytes)";
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipelineCoverage;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+
+/**
+ * Decode WebSocket frames of client, which replaces HTTP decoder after
+ * WebSocketUpgradeHandler upgrades the connection.
+ *
+ * Fragments are joined into one text or binary frame. Pings are answered
+ * with pongs, and a close frame is answered before closing the channel, so
+ * only data frames are sent to higher layer, like BayeuxDecoder.
+ *
+ * @author daijun
+ */
+@ChannelPipelineCoverage("one")
+public class WebSocketFrameDecoder extends FrameDecoder {
+
+    private final int maxFrameLength;
+    private WebSocketFrame.OPCODE fragmentedOpcode;
+    private ChannelBuffer fragments;
+
+    /**
+     * Create a decoder of frames up to 1MB.
+     */
+    public WebSocketFrameDecoder() {
+        this(1048576);
+    }
+
+    /**
+     * Create a decoder of messages, including all fragments, up to given
+     * length.
+     *
+     * @param maxFrameLength
+     */
+    public WebSocketFrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception {
+        int start = buffer.readerIndex();
+        if (buffer.readableBytes() < 2) {
+            return null;
+        }
+        int b0 = buffer.getUnsignedByte(start);
+        int b1 = buffer.getUnsignedByte(start + 1);
+        boolean fin = (b0 & 0x80) != 0;
+        WebSocketFrame.OPCODE opcode = WebSocketFrame.OPCODE.valueOf(b0 & 0x0F);
+        boolean masked = (b1 & 0x80) != 0;
+        int headerLength = 2 + (masked ? 4 : 0);
+        long length = b1 & 0x7F;
+        if (length == 126) {
+            headerLength += 2;
+            if (buffer.readableBytes() < 4) {
+                return null;
+            }
+            length = buffer.getUnsignedShort(start + 2);
+        } else if (length == 127) {
+            headerLength += 8;
+            if (buffer.readableBytes() < 10) {
+                return null;
+            }
+            length = buffer.getLong(start + 2);
+        }
+        if (opcode == null) {
+            throw new IllegalStateException("Unknown WebSocket opcode: " + (b0 & 0x0F));
+        }
+        int fragmentsLength = fragments == null ? 0 : fragments.readableBytes();
+        if (length < 0 || length + fragmentsLength > maxFrameLength) {
+            throw new TooLongFrameException("WebSocket frame is larger than " + maxFrameLength + " bytes");
+        }
+        if (buffer.readableBytes() < headerLength + length) {
+            return null;
+        }
+
+        buffer.skipBytes(headerLength - (masked ? 4 : 0));
+        byte[] mask = null;
+        if (masked) {
+            mask = new byte[4];
+            buffer.readBytes(mask);
+        }
+        ChannelBuffer payload = buffer.readBytes((int) length);
+        if (masked) {
+            for (int i = 0; i < payload.writerIndex(); i++) {
+                payload.setByte(i, (byte) (payload.getByte(i) ^ mask[i & 3]));
+            }
+        }
+
+        switch (opcode) {
+            case PING:
+                channel.write(new WebSocketFrame(WebSocketFrame.OPCODE.PONG, payload));
+                return null;
+            case PONG:
+                return null;
+            case CLOSE:
+                channel.write(new WebSocketFrame(WebSocketFrame.OPCODE.CLOSE, payload)).addListener(ChannelFutureListener.CLOSE);
+                return null;
+            case CONTINUATION:
+                if (fragments == null) {
+                    throw new IllegalStateException("WebSocket continuation frame without a start");
+                }
+                fragments = ChannelBuffers.wrappedBuffer(fragments, payload);
+                break;
+            default:
+                fragmentedOpcode = opcode;
+                fragments = payload;
+        }
+        if (!fin) {
+            return null;
+        }
+        WebSocketFrame frame = new WebSocketFrame(fragmentedOpcode, fragments);
+        fragmentedOpcode = null;
+        fragments = null;
+        return frame;
+    }
+}
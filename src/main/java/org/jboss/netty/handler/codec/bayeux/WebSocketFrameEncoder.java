@@ -0,0 +1,61 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipelineCoverage;
+import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
+
+/**
+ * Encode WebSocket frames to client, which replaces HTTP encoder after
+ * WebSocketUpgradeHandler upgrades the connection. Frames of server are
+ * never masked or fragmented, and the content is not copied.
+ *
+ * @author daijun
+ */
+@ChannelPipelineCoverage("all")
+public class WebSocketFrameEncoder extends OneToOneEncoder {
+
+    @Override
+    protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+        if (!(msg instanceof WebSocketFrame)) {
+            return msg;
+        }
+        WebSocketFrame frame = (WebSocketFrame) msg;
+        ChannelBuffer content = frame.getContent();
+        int length = content.readableBytes();
+        ChannelBuffer header;
+        if (length < 126) {
+            header = ChannelBuffers.buffer(2);
+            header.writeByte((byte) (0x80 | frame.getOpcode().getValue()));
+            header.writeByte((byte) length);
+        } else if (length < 65536) {
+            header = ChannelBuffers.buffer(4);
+            header.writeByte((byte) (0x80 | frame.getOpcode().getValue()));
+            header.writeByte((byte) 126);
+            header.writeShort((short) length);
+        } else {
+            header = ChannelBuffers.buffer(10);
+            header.writeByte((byte) (0x80 | frame.getOpcode().getValue()));
+            header.writeByte((byte) 127);
+            header.writeLong(length);
+        }
+        return length == 0 ? header : ChannelBuffers.wrappedBuffer(header, content);
+    }
+}
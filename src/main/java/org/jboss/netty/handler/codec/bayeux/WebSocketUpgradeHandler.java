@@ -0,0 +1,117 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.security.MessageDigest;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineCoverage;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.base64.Base64;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+
+/**
+ * Upgrade HTTP connections requesting a WebSocket to the "websocket"
+ * connection type. It should be put between HTTP decoder and BayeuxDecoder.
+ *
+ * After answering the upgrade request, it replaces HTTP decoder and encoder
+ * of the pipeline with WebSocketFrameDecoder and WebSocketFrameEncoder, so
+ * Bayeux messages flow in both directions over the socket, with no HTTP
+ * headers. Other requests are passed to BayeuxDecoder as they are.
+ *
+ * Creating it advertises the "websocket" connection type of its router to
+ * clients, so it should only be created for pipelines it's put in.
+ *
+ * @author daijun
+ */
+@ChannelPipelineCoverage("all")
+public class WebSocketUpgradeHandler extends SimpleChannelUpstreamHandler {
+
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final String SEC_WEBSOCKET_KEY = "Sec-WebSocket-Key";
+    private static final String SEC_WEBSOCKET_ACCEPT = "Sec-WebSocket-Accept";
+    private final int maxFrameLength;
+
+    public WebSocketUpgradeHandler(BayeuxRouter router) {
+        this(router, 1048576);
+    }
+
+    /**
+     * @param router router of BayeuxDecoder in the pipeline
+     * @param maxFrameLength max bytes of a message from client
+     */
+    public WebSocketUpgradeHandler(BayeuxRouter router, int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+        router.addConnectionType(BayeuxConnection.TYPE.WEBSOCKET);
+    }
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        if (!(e.getMessage() instanceof HttpRequest) || !isUpgrade((HttpRequest) e.getMessage())) {
+            ctx.sendUpstream(e);
+            return;
+        }
+
+        HttpRequest request = (HttpRequest) e.getMessage();
+        String key = request.getHeader(SEC_WEBSOCKET_KEY);
+        if (key == null) {
+            HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST);
+            response.setHeader(HttpHeaders.Names.CONTENT_LENGTH, "0");
+            ctx.getChannel().write(response);
+            return;
+        }
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SWITCHING_PROTOCOLS);
+        response.setHeader(HttpHeaders.Names.UPGRADE, "websocket");
+        response.setHeader(HttpHeaders.Names.CONNECTION, HttpHeaders.Names.UPGRADE);
+        response.setHeader(SEC_WEBSOCKET_ACCEPT, accept(key.trim()));
+
+        //The response is encoded by the time writing returns, so the HTTP codec can be replaced then.
+        ChannelPipeline pipeline = ctx.getPipeline();
+        ctx.getChannel().write(response);
+        pipeline.replace(HttpResponseEncoder.class, "webSocketEncoder", new WebSocketFrameEncoder());
+        pipeline.replace(HttpRequestDecoder.class, "webSocketDecoder", new WebSocketFrameDecoder(maxFrameLength));
+    }
+
+    private boolean isUpgrade(HttpRequest request) {
+        String upgrade = request.getHeader(HttpHeaders.Names.UPGRADE);
+        String connection = request.getHeader(HttpHeaders.Names.CONNECTION);
+        return "websocket".equalsIgnoreCase(upgrade) && connection != null
+                && connection.toLowerCase().indexOf("upgrade") > -1;
+    }
+
+    /**
+     * Returns Sec-WebSocket-Accept value of a key: base64 of SHA-1 digest of
+     * the key and the WebSocket GUID.
+     *
+     * @param key
+     * @return
+     * @throws Exception
+     */
+    static String accept(String key) throws Exception {
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        byte[] digest = sha1.digest((key + GUID).getBytes("US-ASCII"));
+        return Base64.encode(ChannelBuffers.wrappedBuffer(digest), false).toString("US-ASCII");
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class BayeuxClockTest {
+
+    @Test
+    public void testFormat() {
+        System.out.println("Formatting ISO 8601 timestamps...");
+        DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        df.setTimeZone(TimeZone.getTimeZone("GMT"));
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            long millis = (long) (random.nextDouble() * 253402300799000L);//Up to 9999-12-31
+            assertEquals(df.format(new Date(millis)), BayeuxClock.format(millis, false));
+        }
+        assertEquals("1970-01-01T00:00:00", BayeuxClock.format(0, false));
+        assertEquals("2000-02-29T23:59:59.99", BayeuxClock.format(951868799999L, true));
+        assertEquals("1969-12-31T23:59:59.50", BayeuxClock.format(-500, true));
+    }
+
+    @Test
+    public void testGetCurrentTime() {
+        System.out.println("Getting cached current time...");
+        String time = BayeuxUtil.getCurrentTime();
+        assertTrue(time.matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}"));
+        String precise = BayeuxUtil.getCurrentTime(true);
+        assertTrue(precise.matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{2}"));
+        BayeuxClock clock = BayeuxClock.getInstance(false);
+        String first = clock.getCurrentTime();
+        String second = clock.getCurrentTime();
+        assertTrue(first == second || !first.equals(second));
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.Channels;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class BayeuxConnectionTest {
+
+    @Test
+    public void testDropOldest() {
+        System.out.println("Dropping oldest message of full downstream queue...");
+        BayeuxConnection connection = createConnection(BayeuxConnection.OVERFLOW.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            connection.putToDownstream(createDeliver(i));
+        }
+        assertEquals(3, connection.getDownstreamQueueSize());
+        assertEquals("2", connection.getDownstreamQueue().peek().id);
+        assertEquals(2, connection.getRouter().getMetrics().getDropCount());
+    }
+
+    @Test
+    public void testDropOldestKeepsResponses() {
+        System.out.println("Keeping responses when dropping oldest message...");
+        BayeuxConnection connection = createConnection(BayeuxConnection.OVERFLOW.DROP_OLDEST);
+        connection.putToDownstream(new SubscribeResponse(connection.getClientId(), "/chat", true));
+        for (int i = 0; i < 5; i++) {
+            connection.putToDownstream(createDeliver(i));
+        }
+        connection.putToDownstream(new SubscribeResponse(connection.getClientId(), "/chat/a", true));
+        assertEquals(5, connection.getDownstreamQueueSize());
+        List<BayeuxMessage> messages = new ArrayList<BayeuxMessage>(connection.getDownstreamQueue());
+        assertTrue(messages.get(0) instanceof SubscribeResponse);
+        assertEquals("2", messages.get(1).id);
+        assertEquals("4", messages.get(3).id);
+        assertTrue(messages.get(4) instanceof SubscribeResponse);
+    }
+
+    @Test
+    public void testDropNewest() {
+        System.out.println("Dropping newest message of full downstream queue...");
+        BayeuxConnection connection = createConnection(BayeuxConnection.OVERFLOW.DROP_NEWEST);
+        for (int i = 0; i < 5; i++) {
+            connection.putToDownstream(createDeliver(i));
+        }
+        assertEquals(3, connection.getDownstreamQueueSize());
+        assertEquals("0", connection.getDownstreamQueue().peek().id);
+        assertEquals(2, connection.getRouter().getMetrics().getDropCount());
+    }
+
+    @Test
+    public void testDisconnect() {
+        System.out.println("Disconnecting client of full downstream queue...");
+        BayeuxConnection connection = createConnection(BayeuxConnection.OVERFLOW.DISCONNECT);
+        BayeuxRouter router = connection.getRouter();
+        for (int i = 0; i < 4; i++) {
+            connection.putToDownstream(createDeliver(i));
+        }
+        assertEquals(BayeuxConnection.STATE.DISCONNECTED, connection.getState());
+        assertNull(router.getConnection(connection.getClientId()));
+        assertEquals(1, connection.getDownstreamQueueSize());
+        BayeuxMessage advice = connection.getDownstreamQueue().peek();
+        assertEquals("handshake", advice.advice.get("reconnect"));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        System.out.println("Batching deliveries...");
+        BayeuxRouter router = new BayeuxRouter();
+        router.setBatchSize(3);
+        router.setBatchDelay(100000);
+        BayeuxConnection connection = new BayeuxConnection(router);
+        router.addConnection(connection);
+        List<Object> written = new ArrayList<Object>();
+        connection.accept(createChannel(written), true);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, written.size());
+            connection.putToDownstream(createDeliver(i));
+            connection.flushBatch();
+        }
+        assertEquals(1, written.size());
+        assertEquals("[{\"channel\":\"/chat\",\"id\":\"0\",\"data\":{}},{\"channel\":\"/chat\",\"id\":\"1\",\"data\":{}},{\"channel\":\"/chat\",\"id\":\"2\",\"data\":{}}]",
+                ((BayeuxResponse) written.get(0)).getContent().toString("UTF-8"));
+
+        connection.accept(connection.getChannel(), true);
+        connection.putToDownstream(createDeliver(3));
+        connection.flushBatch();
+        assertEquals(1, written.size());
+        waitForWrites(written, 2);
+        router.releaseExternalResources();
+    }
+
+    @Test
+    public void testStreaming() {
+        System.out.println("Streaming deliveries in chunks...");
+        BayeuxRouter router = new BayeuxRouter();
+        BayeuxConnection connection = new BayeuxConnection(router);
+        router.addConnection(connection);
+        connection.setState(BayeuxConnection.STATE.HANDSHAKED);
+        List<Object> written = new ArrayList<Object>();
+        connection.accept(createChannel(written), true);
+        connection.connect(new ConnectRequest(connection.getClientId(), BayeuxConnection.TYPE.HTTP_STREAMING));
+        connection.flush();
+        assertEquals(1, written.size());
+        BayeuxResponse start = (BayeuxResponse) written.get(0);
+        assertEquals(BayeuxConnection.TYPE.HTTP_STREAMING, start.getStreamType());
+        assertTrue(start.isStart());
+
+        for (int i = 0; i < 2; i++) {
+            connection.putToDownstream(createDeliver(i));
+            connection.flush();
+        }
+        assertEquals(3, written.size());
+        BayeuxResponse chunk = (BayeuxResponse) written.get(2);
+        assertFalse(chunk.isStart());
+        assertEquals("[{\"channel\":\"/chat\",\"id\":\"1\",\"data\":{}}]", chunk.getContent().toString("UTF-8"));
+        assertEquals(0, connection.getIdleTime());
+        router.releaseExternalResources();
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        System.out.println("Compressing responses over threshold...");
+        BayeuxRouter router = new BayeuxRouter();
+        router.setCompressionThreshold(100);
+        List<Object> written = new ArrayList<Object>();
+        BayeuxConnection connection = new BayeuxConnection(router);
+        router.addConnection(connection);
+        connection.accept(createChannel(written), true, BayeuxEncoding.GZIP);
+        connection.putToDownstream(createDeliver(0));
+        connection.flush();
+        assertEquals(BayeuxEncoding.IDENTITY, ((BayeuxResponse) written.get(0)).getEncoding());
+        router.releaseExternalResources();
+    }
+
+    @Test
+    public void testSharedCompression() throws Exception {
+        System.out.println("Sharing deflated deliveries between long-polling subscribers...");
+        BayeuxRouter router = new BayeuxRouter();
+        router.setCompressionThreshold(100);
+        BayeuxConnection[] connections = new BayeuxConnection[2];
+        List<Object> written = new ArrayList<Object>();
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = new BayeuxConnection(router);
+            router.addConnection(connections[i]);
+            connections[i].setState(BayeuxConnection.STATE.CONNECTED);
+            connections[i].accept(createChannel(written), true, i == 0 ? BayeuxEncoding.GZIP : BayeuxEncoding.DEFLATE);
+            connections[i].connect(new ConnectRequest(connections[i].getClientId(), BayeuxConnection.TYPE.LONG_POLLING));
+            connections[i].flush();
+            router.addListener("/chat", connections[i]);
+        }
+        assertEquals(0, written.size());
+
+        DeliverEvent large = createDeliver(1);
+        BayeuxData data = new BayeuxData();
+        data.put("text", "0123456789012345678901234567890123456789012345678901234567890123456789");
+        large.setData(data);
+        router.publish(null, large);
+        assertEquals(2, written.size());
+        byte[] deflated = toBytes(large.getDeflated());
+        for (int i = 0; i < connections.length; i++) {
+            BayeuxResponse response = (BayeuxResponse) written.get(i);
+            assertEquals(i == 0 ? BayeuxEncoding.GZIP : BayeuxEncoding.DEFLATE, response.getEncoding());
+            String json = BayeuxEncodingTest.inflate(response.getContent(), response.getEncoding());
+            assertTrue(json.startsWith("[" + large.getEncoded().toString("UTF-8") + ",{"));
+            assertTrue(json.contains("\"/meta/connect\""));
+            assertTrue(json.contains(connections[i].getClientId()));
+            assertTrue(indexOf(toBytes(response.getContent()), deflated) > 0);
+        }
+        router.releaseExternalResources();
+    }
+
+    private static byte[] toBytes(ChannelBuffer buffer) {
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), bytes);
+        return bytes;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] part) {
+        outer:
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            for (int j = 0; j < part.length; j++) {
+                if (bytes[i + j] != part[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    @Test
+    public void testExpireAfterDropWhileHeld() throws Exception {
+        System.out.println("Expiring client dropped while its connect is held...");
+        BayeuxRouter router = new BayeuxRouter();
+        router.setConnectTimeout(100000);
+        router.setMaxInterval(300);
+        BayeuxConnection connection = new BayeuxConnection(router);
+        router.addConnection(connection);
+        connection.setState(BayeuxConnection.STATE.CONNECTED);
+        AtomicBoolean open = new AtomicBoolean(true);
+        List<Object> written = new ArrayList<Object>();
+        connection.accept(createChannel(written, open), true);
+        connection.connect(new ConnectRequest(connection.getClientId(), BayeuxConnection.TYPE.LONG_POLLING));
+        connection.flush();
+        assertEquals(0, written.size());
+        assertEquals(0, connection.getIdleTime());
+
+        open.set(false);
+        for (int i = 0; i < 500 && connection.getIdleTime() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(connection.getIdleTime() > 0);
+        connection.resume();
+        assertEquals(0, written.size());
+        waitForExpiry(router, connection);
+        router.releaseExternalResources();
+    }
+
+    @Test
+    public void testConnectTimeoutOverMaxInterval() throws Exception {
+        System.out.println("Keeping client whose connect is held longer than max interval...");
+        BayeuxRouter router = new BayeuxRouter();
+        router.setConnectTimeout(600);
+        router.setMaxInterval(400);
+        BayeuxConnection connection = new BayeuxConnection(router);
+        router.addConnection(connection);
+        connection.setState(BayeuxConnection.STATE.CONNECTED);
+        List<Object> written = new ArrayList<Object>();
+        connection.accept(createChannel(written), true);
+        long start = System.currentTimeMillis();
+        connection.connect(new ConnectRequest(connection.getClientId(), BayeuxConnection.TYPE.LONG_POLLING));
+        connection.flush();
+        long expiry = waitForExpiry(router, connection) - start;
+        assertEquals(1, written.size());
+        assertTrue("expired after " + expiry + "ms", expiry >= 900);//Connect timeout, then max interval, less a tick or so
+        router.releaseExternalResources();
+    }
+
+    /**
+     * Wait up to 5 seconds for given number of written messages.
+     */
+    private void waitForWrites(List<Object> written, int count) throws InterruptedException {
+        for (int i = 0; i < 500 && written.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, written.size());
+    }
+
+    /**
+     * Wait up to 5 seconds for router to remove an expired connection, and
+     * returns the time it's removed.
+     */
+    private long waitForExpiry(BayeuxRouter router, BayeuxConnection connection) throws InterruptedException {
+        for (int i = 0; i < 500 && router.getConnection(connection.getClientId()) != null; i++) {
+            Thread.sleep(10);
+        }
+        assertNull(router.getConnection(connection.getClientId()));
+        return System.currentTimeMillis();
+    }
+
+    private BayeuxConnection createConnection(BayeuxConnection.OVERFLOW overflow) {
+        BayeuxRouter router = new BayeuxRouter();
+        router.setDownstreamCapacity(3);
+        router.setOverflow(overflow);
+        BayeuxConnection connection = new BayeuxConnection(router);
+        router.addConnection(connection);
+        return connection;
+    }
+
+    private DeliverEvent createDeliver(int id) {
+        DeliverEvent deliver = new DeliverEvent("/chat", new BayeuxData());
+        deliver.setId(String.valueOf(id));
+        deliver.timestamp = null;
+        return deliver;
+    }
+
+    /**
+     * Create an open channel, which records written messages.
+     */
+    private Channel createChannel(List<Object> written) {
+        return createChannel(written, new AtomicBoolean(true));
+    }
+
+    /**
+     * Create a channel, which records written messages, and is open as long
+     * as the flag is set.
+     */
+    private Channel createChannel(final List<Object> written, final AtomicBoolean open) {
+        return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[]{Channel.class}, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("write")) {
+                    written.add(args[0]);
+                    return Channels.succeededFuture((Channel) proxy);
+                } else if (name.equals("isOpen") || name.equals("isWritable") || name.equals("isConnected")) {
+                    return open.get();
+                } else if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (name.equals("equals")) {
+                    return proxy == args[0];
+                }
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class BayeuxDispatcherTest {
+
+    @Test
+    public void testDispatch() throws Exception {
+        System.out.println("Dispatching published messages...");
+        final CountDownLatch delivered = new CountDownLatch(200);
+        final List<BayeuxConnection> publishersDelivered = new CopyOnWriteArrayList<BayeuxConnection>();
+        BayeuxRouter router = new BayeuxRouter() {
+
+            @Override
+            protected void deliver(BayeuxConnection publisher, DeliverEvent deliver) {
+                super.deliver(publisher, deliver);
+                publishersDelivered.add(publisher);
+                delivered.countDown();
+            }
+        };
+        router.setDispatcher(new BayeuxDispatcher(router, 2, 256));
+        BayeuxConnection[] publishers = new BayeuxConnection[2];
+        BayeuxConnection[] subscribers = new BayeuxConnection[3];
+        for (int i = 0; i < publishers.length; i++) {
+            publishers[i] = new BayeuxConnection(router);
+            router.addConnection(publishers[i]);
+        }
+        for (int i = 0; i < subscribers.length; i++) {
+            subscribers[i] = new BayeuxConnection(router);
+            router.addConnection(subscribers[i]);
+            router.addListener("/chat", subscribers[i]);
+        }
+
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < publishers.length; j++) {
+                DeliverEvent deliver = new DeliverEvent("/chat", new BayeuxData());
+                deliver.setClientId(publishers[j].getClientId());
+                deliver.setId(String.valueOf(i));
+                assertTrue(router.publish(publishers[j], deliver));
+            }
+        }
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+
+        for (BayeuxConnection subscriber : subscribers) {
+            assertEquals(200, subscriber.getDownstreamQueueSize());
+            int[] next = new int[publishers.length];
+            for (BayeuxMessage bayeux : subscriber.getDownstreamQueue()) {
+                int j = bayeux.clientId.equals(publishers[0].getClientId()) ? 0 : 1;
+                assertEquals(String.valueOf(next[j]++), bayeux.id);
+            }
+        }
+        for (BayeuxConnection publisher : publishersDelivered) {
+            assertTrue(publisher == publishers[0] || publisher == publishers[1]);
+        }
+        router.releaseExternalResources();
+    }
+
+    @Test
+    public void testFullQueue() throws Exception {
+        System.out.println("Rejecting messages when queue is full...");
+        final CountDownLatch gate = new CountDownLatch(1);
+        final Semaphore delivered = new Semaphore(0);
+        BayeuxRouter router = new BayeuxRouter() {
+
+            @Override
+            protected void deliver(BayeuxConnection publisher, DeliverEvent deliver) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                super.deliver(publisher, deliver);
+                delivered.release();
+            }
+        };
+        BayeuxDispatcher dispatcher = new BayeuxDispatcher(router, 1, 1);
+        router.setDispatcher(dispatcher);
+        BayeuxConnection publisher = new BayeuxConnection(router);
+        router.addConnection(publisher);
+        int accepted = 0;
+        for (int i = 0; i < 3; i++) {
+            if (router.publish(publisher, new DeliverEvent("/chat", new BayeuxData()))) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted >= 1 && accepted <= 2);
+        assertEquals(0, delivered.availablePermits());
+        gate.countDown();
+        assertTrue(delivered.tryAcquire(accepted, 5, TimeUnit.SECONDS));
+        router.releaseExternalResources();
+    }
+
+    @Test
+    public void testOverloaded() throws Exception {
+        System.out.println("Advising publisher to retry when queue is full...");
+        final CountDownLatch gate = new CountDownLatch(1);
+        BayeuxRouter router = new BayeuxRouter() {
+
+            @Override
+            protected void deliver(BayeuxConnection publisher, DeliverEvent deliver) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                super.deliver(publisher, deliver);
+            }
+        };
+        router.setDispatcher(new BayeuxDispatcher(router, 1, 1));
+        BayeuxConnection publisher = new BayeuxConnection(router);
+        router.addConnection(publisher);
+        for (int i = 0; i < 3; i++) {
+            publisher.publish(new PublishRequest("/chat", new BayeuxData()));
+        }
+        gate.countDown();
+        BayeuxMessage rejected = null;
+        for (BayeuxMessage bayeux : publisher.getDownstreamQueue()) {
+            if (bayeux instanceof PublishResponse && !bayeux.successful) {
+                rejected = bayeux;
+            }
+        }
+        assertNotNull(rejected);
+        assertTrue(rejected.error.startsWith("409:"));
+        assertEquals("retry", rejected.advice.get("reconnect"));
+        router.releaseExternalResources();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class BayeuxEncoderTest {
+
+    @Test
+    public void testEncodeStream() {
+        System.out.println("Encoding streaming responses...");
+        EncoderEmbedder<Object> encoder = new EncoderEmbedder<Object>(new BayeuxEncoder(new BayeuxRouter()));
+        encoder.offer(new BayeuxResponse(ChannelBuffers.copiedBuffer("[1]", "UTF-8"), BayeuxConnection.TYPE.HTTP_STREAMING, true));
+        encoder.offer(new BayeuxResponse(ChannelBuffers.copiedBuffer("[2]", "UTF-8"), BayeuxConnection.TYPE.HTTP_STREAMING, false));
+        HttpResponse head = (HttpResponse) encoder.poll();
+        assertEquals(HttpHeaders.Values.CHUNKED, head.getHeader(HttpHeaders.Names.TRANSFER_ENCODING));
+        assertEquals("[1]\n", ((HttpChunk) encoder.poll()).getContent().toString("UTF-8"));
+        assertEquals("[2]\n", ((HttpChunk) encoder.poll()).getContent().toString("UTF-8"));
+        assertNull(encoder.poll());
+    }
+
+    @Test
+    public void testEncodeIframe() {
+        System.out.println("Encoding iframe responses...");
+        EncoderEmbedder<Object> encoder = new EncoderEmbedder<Object>(new BayeuxEncoder(new BayeuxRouter()));
+        encoder.offer(new BayeuxResponse(ChannelBuffers.copiedBuffer("[]", "UTF-8"), BayeuxConnection.TYPE.IFRAME, true));
+        encoder.offer(new BayeuxResponse(ChannelBuffers.copiedBuffer("[\"</script>\"]", "UTF-8"), BayeuxConnection.TYPE.IFRAME, false));
+        HttpResponse head = (HttpResponse) encoder.poll();
+        assertTrue(head.getHeader(HttpHeaders.Names.CONTENT_TYPE).startsWith("text/html"));
+        String start = ((HttpChunk) encoder.poll()).getContent().toString("UTF-8");
+        assertTrue(start.startsWith("<html>"));
+        assertTrue(start.length() > 1024);
+        assertEquals("<script type=\"text/javascript\">window.parent.bayeux([\"<\\/script>\"]);</script>\n",
+                ((HttpChunk) encoder.poll()).getContent().toString("UTF-8"));
+    }
+
+    @Test
+    public void testEncodeIframeCallback() {
+        System.out.println("Encoding iframe responses with a named callback...");
+        EncoderEmbedder<Object> encoder = new EncoderEmbedder<Object>(
+                new BayeuxEncoder(new BayeuxRouter(), "window.parent.chat.receive"));
+        encoder.offer(new BayeuxResponse(ChannelBuffers.copiedBuffer("[]", "UTF-8"), BayeuxConnection.TYPE.IFRAME, false));
+        assertEquals("<script type=\"text/javascript\">window.parent.chat.receive([]);</script>\n",
+                ((HttpChunk) encoder.poll()).getContent().toString("UTF-8"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidIframeCallback() {
+        System.out.println("Rejecting an iframe callback which isn't a function name...");
+        new BayeuxEncoder(new BayeuxRouter(), "alert(1);x");
+    }
+}
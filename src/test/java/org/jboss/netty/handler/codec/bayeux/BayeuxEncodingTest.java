@@ -0,0 +1,101 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class BayeuxEncodingTest {
+
+    @Test
+    public void testNegotiate() {
+        System.out.println("Negotiating content coding...");
+        assertEquals(BayeuxEncoding.IDENTITY, BayeuxEncoding.negotiate(null));
+        assertEquals(BayeuxEncoding.IDENTITY, BayeuxEncoding.negotiate("identity"));
+        assertEquals(BayeuxEncoding.GZIP, BayeuxEncoding.negotiate("gzip, deflate"));
+        assertEquals(BayeuxEncoding.GZIP, BayeuxEncoding.negotiate("deflate;q=0.5, GZIP"));
+        assertEquals(BayeuxEncoding.DEFLATE, BayeuxEncoding.negotiate("gzip;q=0, deflate"));
+        assertEquals(BayeuxEncoding.DEFLATE, BayeuxEncoding.negotiate("gzip; q=0.0, *"));
+        assertEquals(BayeuxEncoding.GZIP, BayeuxEncoding.negotiate("*;q=1"));
+        assertEquals(BayeuxEncoding.IDENTITY, BayeuxEncoding.negotiate("*;q=0"));
+    }
+
+    @Test
+    public void testEncode() throws Exception {
+        System.out.println("Compressing content...");
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            json.append("{\"channel\":\"/chat\",\"id\":\"").append(i).append("\",\"data\":{}},");
+        }
+        json.setCharAt(json.length() - 1, ']');
+        ChannelBuffer content = ChannelBuffers.copiedBuffer(json.toString(), "UTF-8");
+        assertSame(content, BayeuxEncoding.IDENTITY.encode(content));
+
+        ChannelBuffer gzipped = BayeuxEncoding.GZIP.encode(content);
+        assertTrue(gzipped.readableBytes() < content.readableBytes());
+        assertEquals(json.toString(), inflate(gzipped, BayeuxEncoding.GZIP));
+        ChannelBuffer deflated = BayeuxEncoding.DEFLATE.encode(content);
+        assertTrue(deflated.readableBytes() < content.readableBytes());
+        assertEquals(json.toString(), inflate(deflated, BayeuxEncoding.DEFLATE));
+        assertEquals(json.length(), content.readableBytes());
+    }
+
+    @Test
+    public void testEncodeParts() throws Exception {
+        System.out.println("Joining deflated segments...");
+        if (!BayeuxEncoding.isSegmentSupported()) {
+            return;
+        }
+        ChannelBuffer shared = ChannelBuffers.copiedBuffer("{\"channel\":\"/chat\",\"data\":{\"text\":\"hello hello hello\"}}", "UTF-8");
+        ChannelBuffer segment = BayeuxEncoding.deflateSegment(shared);
+        List<ChannelBuffer> parts = Arrays.asList(
+                ChannelBuffers.copiedBuffer("[", "UTF-8"), shared,
+                ChannelBuffers.copiedBuffer(",", "UTF-8"), shared,
+                ChannelBuffers.copiedBuffer("]", "UTF-8"));
+        List<ChannelBuffer> segments = Arrays.asList(null, segment, null, segment, null);
+        String json = "[" + shared.toString("UTF-8") + "," + shared.toString("UTF-8") + "]";
+        assertEquals(json, inflate(BayeuxEncoding.GZIP.encode(parts, segments), BayeuxEncoding.GZIP));
+        assertEquals(json, inflate(BayeuxEncoding.DEFLATE.encode(parts, segments), BayeuxEncoding.DEFLATE));
+        assertEquals(json, BayeuxEncoding.IDENTITY.encode(parts, segments).toString("UTF-8"));
+    }
+
+    static String inflate(ChannelBuffer buffer, BayeuxEncoding encoding) throws Exception {
+        byte[] bytes = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), bytes);
+        InputStream in = new ByteArrayInputStream(bytes);
+        in = encoding == BayeuxEncoding.GZIP ? new GZIPInputStream(in) : new InflaterInputStream(in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] b = new byte[1024];
+        int n;
+        while ((n = in.read(b)) > 0) {
+            out.write(b, 0, n);
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+}
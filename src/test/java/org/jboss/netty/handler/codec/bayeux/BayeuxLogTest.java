@@ -0,0 +1,159 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class BayeuxLogTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("bayeux", "log");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        System.out.println("Replaying logged messages...");
+        BayeuxLog log = new BayeuxLog(directory);
+        String[] channels = {"/chat/a", "/other", "/chat/b"};
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i + 1, log.append(createDeliver(channels[i % channels.length], i)));
+        }
+        List<DeliverEvent> replayed = log.replay("/chat/*", 1);
+        assertEquals(3, replayed.size());
+        assertEquals("2", replayed.get(0).getId());
+        assertEquals("/chat/b", replayed.get(0).getChannel());
+        assertEquals(3L, ((Number) replayed.get(0).getExt().get("logId")).longValue());
+        assertEquals("3", replayed.get(1).getId());
+        assertEquals("5", replayed.get(2).getId());
+        assertEquals(0, log.replay("/chat/a", 6).size());
+        log.releaseExternalResources();
+
+        log = new BayeuxLog(directory);
+        assertEquals(6, log.getLastId());
+        assertEquals(2, log.replay("/other", 0).size());
+        assertEquals(7, log.append(createDeliver("/other", 6)));
+        assertEquals(1, log.replay("/other", 5).size());
+        log.releaseExternalResources();
+    }
+
+    @Test
+    public void testRolling() throws Exception {
+        System.out.println("Rolling log segments...");
+        BayeuxLog log = new BayeuxLog(directory, 256, 2);
+        for (int i = 0; i < 20; i++) {
+            log.append(createDeliver("/chat", i));
+        }
+        File[] segments = directory.listFiles()[0].listFiles();
+        assertEquals(2, segments.length);
+        List<DeliverEvent> replayed = log.replay("/chat", 0);
+        assertTrue(replayed.size() > 0 && replayed.size() < 20);
+        assertEquals("19", replayed.get(replayed.size() - 1).getId());
+        log.releaseExternalResources();
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        System.out.println("Resuming a subscription from its last received message...");
+        BayeuxRouter router = new BayeuxRouter();
+        router.setLog(new BayeuxLog(directory));
+        for (int i = 0; i < 3; i++) {
+            router.publish(null, createDeliver("/chat", i));
+        }
+        BayeuxConnection connection = new BayeuxConnection(router);
+        router.addConnection(connection);
+        SubscribeRequest subscribeRequest = new SubscribeRequest(connection.getClientId(), "/chat");
+        BayeuxExt ext = new BayeuxExt();
+        ext.put("resume", 1);
+        subscribeRequest.setExt(ext);
+        connection.subscribe(subscribeRequest);
+        assertEquals(3, connection.getDownstreamQueueSize());
+        assertTrue(connection.getDownstreamQueue().poll() instanceof SubscribeResponse);
+        assertEquals("1", connection.getDownstreamQueue().poll().id);
+        assertEquals("2", connection.getDownstreamQueue().poll().id);
+        router.releaseExternalResources();
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        System.out.println("Logging only messages accepted by the dispatcher...");
+        final CountDownLatch gate = new CountDownLatch(1);
+        final Semaphore delivered = new Semaphore(0);
+        BayeuxRouter router = new BayeuxRouter() {
+
+            @Override
+            protected void deliver(BayeuxConnection publisher, DeliverEvent deliver) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                super.deliver(publisher, deliver);
+                delivered.release();
+            }
+        };
+        BayeuxLog log = new BayeuxLog(directory);
+        router.setLog(log);
+        router.setDispatcher(new BayeuxDispatcher(router, 1, 1));
+        int accepted = 0;
+        for (int i = 0; i < 3; i++) {
+            if (router.publish(null, createDeliver("/chat", i))) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted < 3);
+        gate.countDown();
+        assertTrue(delivered.tryAcquire(accepted, 5, TimeUnit.SECONDS));
+        assertEquals(accepted, log.getLastId());
+        router.releaseExternalResources();
+    }
+
+    private DeliverEvent createDeliver(String channel, int id) {
+        DeliverEvent deliver = new DeliverEvent(channel, new BayeuxData());
+        deliver.setId(String.valueOf(id));
+        return deliver;
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
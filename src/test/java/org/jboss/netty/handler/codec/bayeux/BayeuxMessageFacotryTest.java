@@ -2,8 +2,10 @@ package org.jboss.netty.handler.codec.bayeux;
 
 import static org.junit.Assert.*;
 
+import java.util.List;
 import java.util.Map;
 
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.junit.Test;
 
 public class BayeuxMessageFacotryTest {
@@ -19,4 +21,37 @@ public class BayeuxMessageFacotryTest {
 		expect.id="1";
 		assertEquals(expect,bayeux);
 	}
+
+	@Test
+	public void testCreateFromBytes(){
+		String json="[{\"channel\":\"/meta/handshake\",\"version\":\"1.0\",\"supportedConnectionTypes\":[\"long-polling\"],\"unknown\":{\"a\":[1]},\"id\":2},"
+				+ "{\"channel\":\"/chat\",\"clientId\":123,\"data\":{\"text\":\"hi\"}},"
+				+ "{\"clientId\":\"123\",\"id\":\"1\"}]";
+		List<BayeuxMessage> list=BayeuxMessageFactory.getInstance().create(ChannelBuffers.copiedBuffer(json, "UTF-8"));
+		assertEquals(3,list.size());
+		HandshakeRequest handshake=(HandshakeRequest)list.get(0);
+		assertEquals("1.0",handshake.getVersion());
+		assertEquals("2",handshake.getId());
+		assertArrayEquals(new BayeuxConnection.TYPE[]{BayeuxConnection.TYPE.LONG_POLLING},handshake.getSupportedConnectionTypes());
+		PublishRequest publish=(PublishRequest)list.get(1);
+		assertEquals("123",publish.getClientId());
+		assertEquals("hi",publish.getData().get("text"));
+		BayeuxMessage expect=new BayeuxMessage();
+		expect.clientId="123";
+		expect.id="1";
+		assertEquals(expect,list.get(2));
+	}
+
+	@Test
+	public void testCreateChannelLast(){
+		String json="[{\"clientId\":\"123\",\"subscription\":\"/chat\",\"channel\":\"/meta/subscribe\"},"
+				+ "{\"clientId\":\"123\",\"channel\":\"/meta/subscribe\"}]";
+		List<BayeuxMessage> list=BayeuxMessageFactory.getInstance().create(ChannelBuffers.copiedBuffer(json, "UTF-8"));
+		assertEquals(2,list.size());
+		SubscribeRequest subscribe=(SubscribeRequest)list.get(0);
+		assertEquals("123",subscribe.getClientId());
+		assertEquals("/chat",subscribe.getSubscription());
+		assertEquals(BayeuxMessage.class,list.get(1).getClass());
+		assertEquals("/meta/subscribe",list.get(1).channel);
+	}
 }
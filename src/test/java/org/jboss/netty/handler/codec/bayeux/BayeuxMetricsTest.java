@@ -0,0 +1,80 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class BayeuxMetricsTest {
+
+    @Test
+    public void testHistogram() {
+        System.out.println("Recording values to histogram...");
+        BayeuxHistogram histogram = new BayeuxHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        System.out.println("Taking snapshot of router metrics...");
+        BayeuxRouter router = new BayeuxRouter();
+        BayeuxConnection[] subscribers = new BayeuxConnection[3];
+        for (int i = 0; i < subscribers.length; i++) {
+            subscribers[i] = new BayeuxConnection(router);
+            router.addConnection(subscribers[i]);
+            router.addListener("/chat", subscribers[i]);
+        }
+        subscribers[0].setState(BayeuxConnection.STATE.HANDSHAKED);
+        for (int i = 0; i < 4; i++) {
+            router.publish(null, new DeliverEvent("/chat", new BayeuxData()));
+        }
+        router.publish(null, new DeliverEvent("/nobody", new BayeuxData()));
+
+        BayeuxMetrics metrics = router.getMetrics();
+        Map<String, Object> snapshot = metrics.snapshot();
+        assertEquals(3, snapshot.get("connections"));
+        assertEquals(1, snapshot.get("connections.state.HANDSHAKED"));
+        assertEquals(3, snapshot.get("subscribers./chat"));
+        assertEquals(12L, snapshot.get("downstream.depth"));
+        assertEquals(4, snapshot.get("downstream.maxDepth"));
+        assertEquals(5L, snapshot.get("publish.count"));
+        assertEquals(3L, snapshot.get("fanOut.max"));
+        assertEquals(2.4, (Double) snapshot.get("fanOut.mean"), 0.001);
+
+        ObjectName name = metrics.register("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertEquals(5L, server.getAttribute(name, "PublishCount"));
+        assertEquals(3, server.getAttribute(name, "ConnectionCount"));
+        server.unregisterMBean(name);
+        router.releaseExternalResources();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class BayeuxRouterTest {
+
+    @Test
+    public void testRouter() {
+        System.out.println("Routing in a router...");
+        testRouting(new BayeuxRouter());
+    }
+
+    @Test
+    public void testShardedRouter() {
+        System.out.println("Routing in a sharded router...");
+        testRouting(new ShardedBayeuxRouter(4));
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        System.out.println("Expiring idle clients...");
+        BayeuxRouter router = new BayeuxRouter();
+        router.setMaxInterval(200);
+        BayeuxConnection connection = new BayeuxConnection(router);
+        long start = System.currentTimeMillis();
+        router.addConnection(connection);
+        assertTrue(router.addListener("/chat", connection));
+        connection.getSubscriptions().add("/chat");
+        for (int i = 0; i < 500 && router.countConnections() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, router.countConnections());
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        assertTrue(router.match("/chat").isEmpty());
+        assertEquals(BayeuxConnection.STATE.DISCONNECTED, connection.getState());
+        router.releaseExternalResources();
+    }
+
+    @Test
+    public void testIgnoreCase() {
+        System.out.println("Routing regardless of case...");
+        BayeuxRouter router = new BayeuxRouter();
+        BayeuxConnection upper = new BayeuxConnection(router);
+        BayeuxConnection lower = new BayeuxConnection(router);
+        router.addConnection(upper);
+        router.addConnection(lower);
+        assertTrue(router.addListener("/Chat/*", upper));
+        assertTrue(router.addListener("/chat/*", lower));
+        assertEquals(1, router.getSubscriptions().size());
+        assertEquals(2, router.match("/chat/x").size());
+        assertEquals(2, router.match("/CHAT/X").size());
+        assertTrue(router.removeListener("/CHAT/*", upper));
+        assertEquals(1, router.match("/chat/x").size());
+        router.releaseExternalResources();
+    }
+
+    @Test
+    public void testSubscribeRemoved() {
+        System.out.println("Refusing subscriptions of removed connections...");
+        BayeuxRouter router = new BayeuxRouter();
+        BayeuxConnection connection = new BayeuxConnection(router);
+        assertFalse(router.addListener("/chat", connection));
+        router.addConnection(connection);
+        assertTrue(router.removeConnection(connection));
+        connection.subscribe(new SubscribeRequest(connection.getClientId(), "/chat"));
+        assertTrue(router.getSubscriptions().isEmpty());
+        assertTrue(router.match("/chat").isEmpty());
+        assertTrue(connection.getSubscriptions().isEmpty());
+        BayeuxMessage response = connection.getDownstreamQueue().poll();
+        assertFalse(response.successful);
+        assertTrue(response.error.startsWith("402:"));
+        router.releaseExternalResources();
+    }
+
+    private void testRouting(BayeuxRouter router) {
+        BayeuxConnection[] connections = new BayeuxConnection[10];
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = new BayeuxConnection(router);
+            router.addConnection(connections[i]);
+            assertSame(connections[i], router.getConnection(connections[i].getClientId()));
+            assertTrue(router.addListener("/chat/" + (i % 2 == 0 ? "even" : "odd"), connections[i]));
+            connections[i].getSubscriptions().add("/chat/" + (i % 2 == 0 ? "even" : "odd"));
+        }
+        assertEquals(10, router.countConnections());
+        assertEquals(10, router.getConnections().size());
+        assertEquals(2, router.getSubscriptions().size());
+        assertNull(router.getConnection(null));
+
+        assertFalse(router.addListener("/chat/even", connections[0]));
+        assertTrue(router.addListener("/chat/*", connections[1]));
+        assertEquals(6, router.match("/chat/even").size());
+        assertEquals(5, router.match("/chat/odd").size());
+        assertTrue(router.match("/chat/even").contains(connections[1]));
+
+        assertTrue(router.removeListener("/chat/*", connections[1]));
+        assertFalse(router.removeListener("/chat/*", connections[1]));
+        assertTrue(router.removeConnection(connections[0]));
+        assertFalse(router.removeConnection(connections[0]));
+        assertEquals(9, router.countConnections());
+        assertEquals(4, router.match("/chat/even").size());
+        assertEquals(5, router.match("/chat/odd").size());
+    }
+}
@@ -32,6 +32,7 @@ public class BayeuxUtilTest {
     }
 
     @Test
+    @SuppressWarnings("deprecation")
     public void testGenerateUUID() {
         System.out.println("getCurrentTime:");
         System.out.println(BayeuxUtil.generateUUID());
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class ChannelIdTest {
+
+    @Test
+    public void testParse() {
+        System.out.println("Parsing channel ids...");
+        ChannelId id = ChannelId.of("/chat/room/");
+        assertSame(id, ChannelId.of("/chat/room/"));
+        assertEquals(ChannelId.of("/chat/room"), id);
+        assertEquals("/chat/room", id.getName());
+        assertEquals(2, id.getDepth());
+        assertEquals("room", id.getSegment(1));
+        assertEquals(ChannelId.WILD.NONE, id.getWild());
+        assertEquals(ChannelId.WILD.DEEP_WILD, ChannelId.of("/chat/**").getWild());
+        assertTrue(ChannelId.of("/meta/connect").isMeta());
+        assertFalse(ChannelId.of("/metadata").isMeta());
+        assertFalse(ChannelId.of("chat").isValid());
+        assertFalse(ChannelId.of("/").isValid());
+        assertFalse(ChannelId.of("/chat/*/room").isValid());
+        assertNull(ChannelId.of(null));
+    }
+
+    @Test
+    public void testIgnoreCase() {
+        System.out.println("Matching channel ids regardless of case...");
+        ChannelId wild = ChannelId.of("/Chat/*");
+        assertEquals("/Chat/*", wild.getName());
+        assertEquals("/chat/*", wild.getKey());
+        assertTrue(wild.matches(ChannelId.of("/chat/x")));
+        assertTrue(ChannelId.of("/chat/room").matches(ChannelId.of("/CHAT/Room")));
+        assertEquals(1, BayeuxUtil.prefixMatch("/chat/x", new String[]{"/Chat/*"}).size());
+    }
+
+    @Test
+    public void testInternLimit() {
+        System.out.println("Limiting interned channel ids...");
+        ChannelId room = ChannelId.of("/chat/room");
+        for (int i = 0; i < ChannelId.MAX_INTERNED * 4; i++) {
+            ChannelId.of("/junk/" + i);
+            if (i % 100 == 0) {
+                assertSame(room, ChannelId.of("/chat/room"));
+            }
+        }
+        assertTrue(ChannelId.countInterned() <= ChannelId.MAX_INTERNED);
+        assertSame(room, ChannelId.of("/chat/room"));
+        ChannelId junk = ChannelId.of("/junk/new");
+        assertSame(junk, ChannelId.of("/junk/new"));
+    }
+
+    @Test
+    public void testMatches() {
+        System.out.println("Matching channel ids...");
+        ChannelId room = ChannelId.of("/chat/room");
+        assertTrue(room.matches(ChannelId.of("/chat/room/")));
+        assertFalse(room.matches(ChannelId.of("/chat/hall")));
+        ChannelId wild = ChannelId.of("/chat/*");
+        assertTrue(wild.matches(room));
+        assertFalse(wild.matches(ChannelId.of("/chat")));
+        assertFalse(wild.matches(ChannelId.of("/chat/room/1")));
+        ChannelId deepWild = ChannelId.of("/chat/**");
+        assertTrue(deepWild.matches(room));
+        assertTrue(deepWild.matches(ChannelId.of("/chat/room/1")));
+        assertFalse(deepWild.matches(ChannelId.of("/chat")));
+        assertFalse(deepWild.matches(ChannelId.of("/news/room")));
+        assertFalse(deepWild.matches(ChannelId.of("/chat/*/1")));
+        assertFalse(room.matches(wild));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class ChannelTrieTest {
+
+    @Test
+    public void testMatch() {
+        System.out.println("Matching channels...");
+        BayeuxRouter router = new BayeuxRouter();
+        BayeuxConnection wild = new BayeuxConnection(router);
+        BayeuxConnection deepWild = new BayeuxConnection(router);
+        BayeuxConnection exact = new BayeuxConnection(router);
+        BayeuxConnection deep = new BayeuxConnection(router);
+        ChannelTrie<BayeuxConnection> trie = new ChannelTrie<BayeuxConnection>();
+        trie.put("/channel/*", Collections.singletonList(wild));
+        trie.put("/channel/**", Collections.singletonList(deepWild));
+        trie.put("/channel/a", Collections.singletonList(exact));
+        trie.put("/channel/a/aa", Collections.singletonList(deep));
+
+        Set<BayeuxConnection> result = trie.match("/channel/abc");
+        assertEquals(2, result.size());
+        assertTrue(result.containsAll(Arrays.asList(wild, deepWild)));
+
+        result = trie.match("/channel/a");
+        assertEquals(3, result.size());
+        assertTrue(result.containsAll(Arrays.asList(wild, deepWild, exact)));
+
+        result = trie.match("/channel/a/aa");
+        assertEquals(2, result.size());
+        assertTrue(result.containsAll(Arrays.asList(deepWild, deep)));
+
+        result = trie.match("/channel/*");
+        assertEquals(3, result.size());
+        assertTrue(result.containsAll(Arrays.asList(wild, deepWild, exact)));
+
+        result = trie.match("/channel/**");
+        assertEquals(4, result.size());
+
+        assertTrue(trie.match("/channel").isEmpty());
+        assertTrue(trie.match("/other/a").isEmpty());
+    }
+
+    @Test
+    public void testRemove() {
+        System.out.println("Removing channels...");
+        BayeuxRouter router = new BayeuxRouter();
+        BayeuxConnection connection = new BayeuxConnection(router);
+        ChannelTrie<BayeuxConnection> trie = new ChannelTrie<BayeuxConnection>();
+        trie.put("/a/b/c", Collections.singletonList(connection));
+        trie.put("/a", Collections.singletonList(connection));
+        assertFalse(trie.remove("/a/b"));
+        assertTrue(trie.remove("/a/b/c"));
+        assertFalse(trie.remove("/a/b/c"));
+        assertTrue(trie.match("/a/b/c").isEmpty());
+        assertEquals(1, trie.match("/a/").size());
+    }
+}
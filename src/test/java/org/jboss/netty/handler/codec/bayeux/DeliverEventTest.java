@@ -15,6 +15,7 @@
  */
 package org.jboss.netty.handler.codec.bayeux;
 
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -47,4 +48,21 @@ public class DeliverEventTest {
         assertFalse(PublishRequest.isValid(deliverEvent));
         assertFalse(deliverEvent.isValid());
     }
+
+    @Test
+    public void testGetEncoded() {
+        System.out.println("Encoding once...");
+        BayeuxData data = new BayeuxData();
+        data.put("chat", "hello");
+        DeliverEvent deliverEvent = new DeliverEvent("/chat", data);
+        deliverEvent.timestamp = null;
+        ChannelBuffer first = deliverEvent.getEncoded();
+        ChannelBuffer second = deliverEvent.getEncoded();
+        assertEquals("{\"channel\":\"/chat\",\"data\":{\"chat\":\"hello\"}}", first.toString("UTF-8"));
+        first.skipBytes(first.readableBytes());
+        assertEquals(deliverEvent.toJSON(), second.toString("UTF-8"));
+
+        deliverEvent.setChannel("/chat/room");
+        assertEquals(deliverEvent.toJSON(), deliverEvent.getEncoded().toString("UTF-8"));
+    }
 }
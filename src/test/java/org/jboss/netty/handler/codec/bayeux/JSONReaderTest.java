@@ -0,0 +1,68 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.util.Map;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class JSONReaderTest {
+
+    @Test
+    public void testReadTokens() {
+        System.out.println("Reading JSON tokens from bytes...");
+        ChannelBuffer buffer = ChannelBuffers.copiedBuffer("/*c*/ [{\"channel\" : \"/chat\\n中😀\", \"skip\":{\"a\":[1,\"\\\"\"]}, \"id\":-12}, 1.5e2, null, true]", "UTF-8");
+        JSONReader reader = new JSONReader(buffer);
+        reader.beginArray();
+        reader.beginObject();
+        assertEquals("channel", reader.nextName());
+        assertEquals("/chat\n中😀", reader.nextString());
+        assertEquals("skip", reader.nextName());
+        reader.skipValue();
+        assertEquals("id", reader.nextName());
+        assertEquals(-12L, reader.nextLong());
+        assertFalse(reader.hasNext());
+        reader.endObject();
+        assertEquals(150.0, reader.nextNumber());
+        assertEquals(JSONReader.TOKEN.NULL, reader.peek());
+        reader.nextNull();
+        assertTrue(reader.nextBoolean());
+        reader.endArray();
+        assertEquals(JSONReader.TOKEN.END, reader.peek());
+        assertEquals(0, buffer.readerIndex());
+    }
+
+    @Test
+    public void testParseBuffer() {
+        System.out.println("Parsing JSON from buffer...");
+        ChannelBuffer buffer = ChannelBuffers.copiedBuffer("[{\"data\":{\"text\":\"\\u0041b\"}}]", "UTF-8");
+        Object[] result = (Object[]) new JSONParser().parse(buffer);
+        assertEquals(1, result.length);
+        assertEquals("Ab", ((Map) ((Map) result[0]).get("data")).get("text"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIllegalJSON() {
+        System.out.println("Parsing illegal JSON from buffer...");
+        new JSONParser().parse(ChannelBuffers.copiedBuffer("[{\"a\" 1}]", "UTF-8"));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class JSONWriterTest {
+
+    @Test
+    public void testWriteNested() {
+        System.out.println("Writing nested JSON...");
+        List<Object> list = new ArrayList<Object>();
+        list.add(1);
+        list.add(-20L);
+        list.add(null);
+        list.add(true);
+        JSONWriter writer = new JSONWriter();
+        writer.beginObject();
+        writer.name("a").value(list);
+        writer.name("b").beginObject().name("c").value("d").endObject();
+        writer.name("e").beginArray().endArray();
+        writer.endObject();
+        assertEquals("{\"a\":[1,-20,null,true],\"b\":{\"c\":\"d\"},\"e\":[]}", writer.toString());
+    }
+
+    @Test
+    public void testWriteNonStringKeys() {
+        System.out.println("Writing a map with non-string keys...");
+        Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+        map.put(1, "a");
+        map.put(null, true);
+        JSONWriter writer = new JSONWriter();
+        writer.value(map);
+        assertEquals("{\"1\":\"a\",\"null\":true}", writer.toString());
+    }
+
+    @Test
+    public void testWriteEscaped() {
+        System.out.println("Writing escaped JSON string...");
+        JSONWriter writer = new JSONWriter();
+        writer.value("\"\\/\n\t\u0001中😀");
+        assertEquals("\"\\\"\\\\/\\n\\t\\u0001中😀\"", writer.toString());
+    }
+
+    @Test
+    public void testWriteEncoded() {
+        System.out.println("Writing encoded JSON...");
+        ChannelBuffer encoded = ChannelBuffers.copiedBuffer("{\"x\":1}", "UTF-8");
+        JSONWriter writer = new JSONWriter();
+        writer.raw("callback(").beginArray().value("a").encoded(encoded).encoded(encoded).value(2).endArray().raw(")");
+        assertEquals("callback([\"a\",{\"x\":1},{\"x\":1},2])", writer.toString());
+        assertEquals(0, encoded.readerIndex());
+    }
+}
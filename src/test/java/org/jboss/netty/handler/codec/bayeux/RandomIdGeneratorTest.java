@@ -0,0 +1,76 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class RandomIdGeneratorTest {
+
+    @Test
+    public void testGenerateId() throws Exception {
+        System.out.println("Generating ids on several threads...");
+        final RandomIdGenerator generator = new RandomIdGenerator("n1-");
+        final Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int tag = i;
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        ids.add(generator.generateId(tag));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, ids.size());
+        String id = generator.generateId(0xabc);
+        assertTrue(id.matches("n1-0abc[0-9a-f]{32}"));
+        assertEquals(0xabc, generator.tagOf(id));
+        assertEquals(-1, generator.tagOf("0abc"));
+        assertEquals(-1, new RandomIdGenerator("n2-").tagOf(id));
+    }
+
+    @Test
+    public void testShardTag() {
+        System.out.println("Finding shards by tags of client ids...");
+        ShardedBayeuxRouter router = new ShardedBayeuxRouter(4);
+        int[] counts = new int[4];
+        for (int i = 0; i < 8; i++) {
+            BayeuxConnection connection = new BayeuxConnection(router);
+            router.addConnection(connection);
+            counts[router.getIdGenerator().tagOf(connection.getClientId())]++;
+            assertSame(connection, router.getConnection(connection.getClientId()));
+        }
+        for (int count : counts) {
+            assertEquals(2, count);
+        }
+        router.releaseExternalResources();
+    }
+}
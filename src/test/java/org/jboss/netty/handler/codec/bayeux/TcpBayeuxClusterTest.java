@@ -0,0 +1,85 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class TcpBayeuxClusterTest {
+
+    @Test
+    public void testForward() throws Exception {
+        System.out.println("Forwarding published messages to interested peers...");
+        BayeuxRouter[] routers = {new BayeuxRouter(), new ShardedBayeuxRouter(4), new BayeuxRouter()};
+        TcpBayeuxCluster[] clusters = new TcpBayeuxCluster[routers.length];
+        for (int i = 0; i < routers.length; i++) {
+            clusters[i] = new TcpBayeuxCluster();
+            routers[i].setCluster(clusters[i]);
+        }
+        clusters[0].addPeer(clusters[1].getLocalAddress());
+        clusters[0].addPeer(clusters[2].getLocalAddress());
+        clusters[1].addPeer(clusters[2].getLocalAddress());
+
+        BayeuxConnection[] subscribers = new BayeuxConnection[4];
+        for (int i = 0; i < subscribers.length; i++) {
+            subscribers[i] = new BayeuxConnection(routers[1]);
+            routers[1].addConnection(subscribers[i]);
+            routers[1].addListener("/chat/*", subscribers[i]);
+        }
+        BayeuxConnection other = new BayeuxConnection(routers[2]);
+        routers[2].addConnection(other);
+        routers[2].addListener("/other", other);
+        waitFor(clusters[0], "/chat/a", 1);
+        waitFor(clusters[0], "/other", 1);
+        waitFor(clusters[2], "/chat/a", 1);
+
+        routers[0].publish(null, new DeliverEvent("/chat/a", new BayeuxData()));
+        routers[0].publish(null, new DeliverEvent("/nobody", new BayeuxData()));
+        for (int i = 0; i < 100 && subscribers[subscribers.length - 1].getDownstreamQueueSize() == 0; i++) {
+            Thread.sleep(20);
+        }
+        for (BayeuxConnection subscriber : subscribers) {
+            assertEquals(1, subscriber.getDownstreamQueueSize());
+            assertEquals("/chat/a", subscriber.getDownstreamQueue().peek().channel);
+        }
+        assertEquals(0, other.getDownstreamQueueSize());
+        assertEquals(1, clusters[0].countForwarded());
+        assertEquals(0, clusters[1].countForwarded());
+
+        for (int i = 0; i < subscribers.length - 1; i++) {
+            routers[1].removeListener("/chat/*", subscribers[i]);
+        }
+        Thread.sleep(100);
+        assertEquals(1, clusters[0].countInterestedPeers("/chat/a"));
+        routers[1].removeListener("/chat/*", subscribers[subscribers.length - 1]);
+        waitFor(clusters[0], "/chat/a", 0);
+
+        for (BayeuxRouter router : routers) {
+            router.releaseExternalResources();
+        }
+    }
+
+    private void waitFor(TcpBayeuxCluster cluster, String channel, int peers) throws InterruptedException {
+        for (int i = 0; i < 100 && cluster.countInterestedPeers(channel) != peers; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(peers, cluster.countInterestedPeers(channel));
+    }
+}
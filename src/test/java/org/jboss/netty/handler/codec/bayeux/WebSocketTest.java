@@ -0,0 +1,122 @@
+/*
+ * Copyright 2009 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jboss.netty.handler.codec.bayeux;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author daijun
+ */
+public class WebSocketTest {
+
+    @Test
+    public void testAccept() throws Exception {
+        System.out.println("Computing WebSocket accept key...");
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocketUpgradeHandler.accept("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    @Test
+    public void testDecodeFragments() {
+        System.out.println("Decoding fragmented WebSocket frames...");
+        DecoderEmbedder<WebSocketFrame> decoder = new DecoderEmbedder<WebSocketFrame>(new WebSocketFrameDecoder());
+        ChannelBuffer frames = ChannelBuffers.dynamicBuffer();
+        frames.writeBytes(mask(0x01, false, "Hel"));
+        frames.writeBytes(mask(0x00, true, "lo"));
+        decoder.offer(frames.slice(0, 5));
+        assertNull(decoder.poll());
+        decoder.offer(frames.slice(5, frames.readableBytes() - 5));
+        WebSocketFrame frame = decoder.poll();
+        assertEquals(WebSocketFrame.OPCODE.TEXT, frame.getOpcode());
+        assertEquals("Hello", frame.getContent().toString("UTF-8"));
+    }
+
+    @Test
+    public void testEncode() {
+        System.out.println("Encoding WebSocket frames...");
+        EncoderEmbedder<ChannelBuffer> encoder = new EncoderEmbedder<ChannelBuffer>(new WebSocketFrameEncoder());
+        encoder.offer(new WebSocketFrame(ChannelBuffers.copiedBuffer("[]", "UTF-8")));
+        ChannelBuffer buffer = encoder.poll();
+        assertEquals(4, buffer.readableBytes());
+        assertEquals((byte) 0x81, buffer.getByte(0));
+        assertEquals(2, buffer.getByte(1));
+
+        encoder.offer(new WebSocketFrame(ChannelBuffers.wrappedBuffer(new byte[300])));
+        buffer = encoder.poll();
+        assertEquals(304, buffer.readableBytes());
+        assertEquals(126, buffer.getByte(1));
+        assertEquals(300, buffer.getUnsignedShort(2));
+    }
+
+    @Test
+    public void testDecodeBayeux() {
+        System.out.println("Decoding Bayeux messages from WebSocket frames...");
+        BayeuxRouter router = new BayeuxRouter();
+        DecoderEmbedder<BayeuxConnection> decoder = new DecoderEmbedder<BayeuxConnection>(new WebSocketFrameDecoder(), new BayeuxDecoder(router));
+        decoder.offer(mask(0x01, true, "[{\"channel\":\"/meta/handshake\",\"version\":\"1.0\",\"minimumVersion\":\"1.0beta\",\"supportedConnectionTypes\":[\"websocket\"]}]"));
+        BayeuxConnection connection = decoder.poll();
+        BayeuxMessage handshake = connection.getFromUpstream();
+        assertTrue(handshake instanceof HandshakeRequest);
+        assertEquals(BayeuxConnection.TYPE.WEBSOCKET, handshake.supportedConnectionTypes[0]);
+        assertEquals(0, connection.getIdleTime());
+        router.releaseExternalResources();
+    }
+
+    @Test
+    public void testAdvertise() {
+        System.out.println("Advertising websocket only with an upgrade handler...");
+        BayeuxRouter router = new BayeuxRouter();
+        assertFalse(handshake(router).isSuccessful());
+        new WebSocketUpgradeHandler(router);
+        assertTrue(handshake(router).isSuccessful());
+        router.releaseExternalResources();
+    }
+
+    private HandshakeResponse handshake(BayeuxRouter router) {
+        BayeuxConnection connection = new BayeuxConnection(router);
+        router.addConnection(connection);
+        HandshakeRequest request = new HandshakeRequest("1.0", new BayeuxConnection.TYPE[]{BayeuxConnection.TYPE.WEBSOCKET});
+        request.minimumVersion = "1.0beta";
+        connection.handshake(request);
+        return (HandshakeResponse) connection.getDownstreamQueue().poll();
+    }
+
+    /**
+     * Create a frame of client, which is masked.
+     */
+    private ChannelBuffer mask(int opcode, boolean fin, String text) {
+        byte[] payload = text.getBytes();
+        byte[] mask = {0x12, 0x34, 0x56, 0x78};
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+        buffer.writeByte((byte) ((fin ? 0x80 : 0) | opcode));
+        if (payload.length < 126) {
+            buffer.writeByte((byte) (0x80 | payload.length));
+        } else {
+            buffer.writeByte((byte) (0x80 | 126));
+            buffer.writeShort((short) payload.length);
+        }
+        buffer.writeBytes(mask);
+        for (int i = 0; i < payload.length; i++) {
+            buffer.writeByte((byte) (payload[i] ^ mask[i & 3]));
+        }
+        return buffer;
+    }
+}